@@ -0,0 +1,155 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.platform
+
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Collapses bursts of notifications into a single fetch and delivery.
+ *
+ * All calls to [post] or [push] which arrive during the quiet window of a pending dispatch are merged into it.
+ * Once the window has passed the value is fetched exactly once and handed to the consumer. If all merged
+ * notifications were pushed with their value the most recent one is delivered without fetching.
+ * Fetching is single-flight: Posts arriving while a fetch is running result in exactly one follow-up
+ * dispatch, regardless of how many threads the executor provides.
+ *
+ * @param quietWindowMillis the time to wait for further notifications before dispatching.
+ * @param executor the executor the fetch and delivery run on.
+ * @param fetch retrieves the current value.
+ * @param deliver consumes the fetched value. The flag indicates whether any of the coalesced posts were forced.
+ */
+class CoalescingDispatcher<T>(
+    private val quietWindowMillis: Long,
+    private val executor: MonitorExecutor,
+    private val fetch: () -> T,
+    private val deliver: (T, Boolean) -> Unit
+) {
+    private val pending = AtomicBoolean(false)
+    private val forced = AtomicBoolean(false)
+    private val requested = AtomicBoolean(false)
+    private val inFlight = AtomicBoolean(false)
+
+    /*
+     * Either the most recently pushed value, NEEDS_FETCH if any pending notification didn't carry a value
+     * or EMPTY if there is nothing pending.
+     */
+    private val latest = AtomicReference<Any?>(EMPTY)
+
+    private val receivedCount = AtomicLong()
+    private val coalescedCount = AtomicLong()
+    private val dispatchedCount = AtomicLong()
+    private val fetchedCount = AtomicLong()
+
+    val statistics: Statistics
+        get() = Statistics(receivedCount.get(), coalescedCount.get(), dispatchedCount.get(), fetchedCount.get())
+
+    /**
+     * Notify about a change without providing the new value.
+     */
+    fun post(force: Boolean = false) {
+        latest.set(NEEDS_FETCH)
+        enqueue(force)
+    }
+
+    /**
+     * Notify about a change to the given value.
+     */
+    fun push(value: T, force: Boolean = false) {
+        latest.updateAndGet { if (it === NEEDS_FETCH) it else value }
+        enqueue(force)
+    }
+
+    private fun enqueue(force: Boolean) {
+        receivedCount.incrementAndGet()
+        if (force) forced.set(true)
+        if (pending.compareAndSet(false, true)) {
+            if (!executor.schedule(quietWindowMillis, ::dispatch)) {
+                // Allow the next notification to try again.
+                pending.set(false)
+                LOGGER.warn("Notification was rejected by the executor. ${executor.statistics}")
+            }
+        } else {
+            coalescedCount.incrementAndGet()
+        }
+    }
+
+    /**
+     * Forgets all pending notifications. Has to be called once the executor has discarded the scheduled
+     * dispatches, otherwise later notifications would be merged into a dispatch which never runs.
+     */
+    fun reset() {
+        latest.set(EMPTY)
+        forced.set(false)
+        requested.set(false)
+        pending.set(false)
+    }
+
+    private fun dispatch() {
+        requested.set(true)
+        /*
+         * Only one thread may fetch at a time. If the flight is taken the request flag is left set,
+         * which makes the current owner run one more round after it has finished.
+         */
+        while (requested.get() && inFlight.compareAndSet(false, true)) {
+            try {
+                if (requested.getAndSet(false)) {
+                    pending.set(false)
+                    val force = forced.getAndSet(false)
+                    dispatchedCount.incrementAndGet()
+                    deliver(currentValue(latest.getAndSet(EMPTY)), force)
+                }
+            } catch (e: RuntimeException) {
+                LOGGER.warn("Failed to dispatch notification", e)
+            } finally {
+                inFlight.set(false)
+            }
+        }
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun currentValue(pushed: Any?): T =
+        if (pushed === NEEDS_FETCH || pushed === EMPTY) {
+            fetchedCount.incrementAndGet()
+            fetch()
+        } else {
+            pushed as T
+        }
+
+    companion object {
+        private val LOGGER = PluginLogger<CoalescingDispatcher<*>>()
+        private val EMPTY = Any()
+        private val NEEDS_FETCH = Any()
+    }
+
+    /**
+     * @param received the total number of notifications.
+     * @param coalesced the number of notifications merged into an already pending dispatch.
+     * @param dispatched the number of values which have been delivered.
+     * @param fetched the number of dispatches which had to fetch the value.
+     */
+    data class Statistics(val received: Long, val coalesced: Long, val dispatched: Long, val fetched: Long)
+}
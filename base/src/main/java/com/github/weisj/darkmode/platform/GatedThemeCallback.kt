@@ -0,0 +1,78 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.platform
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Forwards theme changes to the delegate only while the gate is open.
+ *
+ * While the gate is closed the most recent state is retained and delivered as soon as the gate opens.
+ * This allows a monitor to be started ahead of time and take over from another one without
+ * both of them reporting at the same time.
+ */
+class GatedThemeCallback(private val delegate: ThemeCallback, open: Boolean = false) : ThemeCallback {
+    private val lock = ReentrantLock()
+    private val firstSnapshot = CountDownLatch(1)
+    private var isOpen = open
+    private var pending: ThemeSnapshot? = null
+
+    /*
+     * Delivery happens while holding the lock. Otherwise, a retained state delivered by open
+     * could overtake a newer state reported concurrently.
+     */
+    override fun themeChanged(isDark: Boolean, isHighContrast: Boolean) {
+        lock.withLock {
+            firstSnapshot.countDown()
+            if (isOpen) {
+                delegate.themeChanged(isDark, isHighContrast)
+            } else {
+                pending = ThemeSnapshot(isDark, isHighContrast)
+            }
+        }
+    }
+
+    fun open() {
+        lock.withLock {
+            isOpen = true
+            pending?.let { delegate.themeChanged(it.dark, it.highContrast) }
+            pending = null
+        }
+    }
+
+    fun close() {
+        lock.withLock { isOpen = false }
+    }
+
+    /**
+     * Waits until the first state has been reported through this callback.
+     *
+     * @return false if the timeout elapsed before.
+     */
+    fun awaitFirstSnapshot(timeout: Long, unit: TimeUnit): Boolean = firstSnapshot.await(timeout, unit)
+}
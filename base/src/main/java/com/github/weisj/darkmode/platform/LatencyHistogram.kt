@@ -0,0 +1,122 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.platform
+
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Lock-free histogram of latencies with microsecond resolution.
+ *
+ * Each power of two range is split into [SUB_BUCKETS] linear buckets, hence reported percentiles
+ * are at most 25% larger than the recorded values.
+ */
+class LatencyHistogram {
+    private val buckets = AtomicLongArray(BUCKET_COUNT)
+    private val count = AtomicLong()
+    private val totalMicros = AtomicLong()
+    private val maxMicros = AtomicLong()
+
+    fun recordNanos(nanos: Long) {
+        val micros = TimeUnit.NANOSECONDS.toMicros(nanos.coerceAtLeast(0))
+        buckets.incrementAndGet(bucketIndex(micros))
+        count.incrementAndGet()
+        totalMicros.addAndGet(micros)
+        maxMicros.accumulateAndGet(micros, ::maxOf)
+    }
+
+    /**
+     * Returns the upper bound of the bucket containing the given percentile in microseconds.
+     *
+     * @param percentile the percentile in the range (0, 100].
+     */
+    fun percentileMicros(percentile: Double): Long {
+        val total = count.get()
+        if (total == 0L) return 0
+        val rank = Math.ceil(total * percentile / 100.0).toLong().coerceIn(1, total)
+        var seen = 0L
+        for (i in 0 until BUCKET_COUNT) {
+            seen += buckets.get(i)
+            if (seen >= rank) return minOf(bucketUpperBound(i), maxMicros.get())
+        }
+        return maxMicros.get()
+    }
+
+    val snapshot: Snapshot
+        get() {
+            val n = count.get()
+            return Snapshot(
+                count = n,
+                meanMicros = if (n == 0L) 0 else totalMicros.get() / n,
+                p50Micros = percentileMicros(50.0),
+                p99Micros = percentileMicros(99.0),
+                maxMicros = maxMicros.get()
+            )
+        }
+
+    fun reset() {
+        for (i in 0 until BUCKET_COUNT) buckets.set(i, 0)
+        count.set(0)
+        totalMicros.set(0)
+        maxMicros.set(0)
+    }
+
+    data class Snapshot(
+        val count: Long,
+        val meanMicros: Long,
+        val p50Micros: Long,
+        val p99Micros: Long,
+        val maxMicros: Long
+    ) {
+        override fun toString(): String =
+            "count=$count, mean=${formatMicros(meanMicros)}, p50=${formatMicros(p50Micros)}, " +
+                "p99=${formatMicros(p99Micros)}, max=${formatMicros(maxMicros)}"
+
+        private fun formatMicros(micros: Long): String =
+            if (micros < 1000) "${micros}µs" else String.format("%.1fms", micros / 1000.0)
+    }
+
+    companion object {
+        private const val SUB_BUCKET_BITS = 2
+        private const val SUB_BUCKETS = 1 shl SUB_BUCKET_BITS
+        private const val BUCKET_COUNT = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS
+
+        private fun bucketIndex(micros: Long): Int {
+            if (micros < SUB_BUCKETS) return micros.toInt()
+            val exponent = 63 - java.lang.Long.numberOfLeadingZeros(micros)
+            val subBucket = (micros ushr (exponent - SUB_BUCKET_BITS)).toInt() and (SUB_BUCKETS - 1)
+            return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket
+        }
+
+        private fun bucketUpperBound(index: Int): Long {
+            if (index < SUB_BUCKETS) return index.toLong()
+            val exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS
+            val subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS
+            val width = 1L shl (exponent - SUB_BUCKET_BITS)
+            return (1L shl exponent) + (subBucket + 1) * width - 1
+        }
+    }
+}
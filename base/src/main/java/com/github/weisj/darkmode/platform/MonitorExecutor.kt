@@ -0,0 +1,143 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.platform
+
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Single threaded executor which native notifications are handed off to. This way native event loops
+ * (the Gtk main loop, the dbus signal dispatcher, ...) only need to enqueue a task and can return immediately.
+ *
+ * The executor only holds a bounded number of tasks. Submission never blocks, instead tasks exceeding the
+ * capacity are rejected. The thread is released after some time of inactivity or once the executor is shut down.
+ * Scheduling a task after shutting down starts a new thread.
+ *
+ * @param name the name of the worker thread.
+ * @param capacity the maximum number of queued tasks.
+ */
+class MonitorExecutor(name: String, private val capacity: Int = DEFAULT_CAPACITY) {
+
+    private val threadName = name
+
+    // Guarded by this.
+    private var executor: ScheduledThreadPoolExecutor? = null
+
+    private fun createExecutor() = ScheduledThreadPoolExecutor(1) { r ->
+        Thread(r, threadName).apply { isDaemon = true }
+    }.apply {
+        setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS)
+        allowCoreThreadTimeOut(true)
+        removeOnCancelPolicy = true
+    }
+
+    private val maxQueueDepth = AtomicInteger()
+    private val rejectedCount = AtomicLong()
+    private val handoffCount = AtomicLong()
+    private val totalHandoffNanos = AtomicLong()
+    private val maxHandoffNanos = AtomicLong()
+
+    /**
+     * The number of tasks currently waiting for execution.
+     */
+    val queueDepth: Int
+        get() = synchronized(this) { executor?.queue?.size ?: 0 }
+
+    val statistics: Statistics
+        get() {
+            val handoffs = handoffCount.get()
+            return Statistics(
+                queueDepth = queueDepth,
+                maxQueueDepth = maxQueueDepth.get(),
+                rejected = rejectedCount.get(),
+                handoffs = handoffs,
+                averageHandoffMicros = if (handoffs == 0L) 0 else totalHandoffNanos.get() / handoffs / 1000,
+                maxHandoffMicros = maxHandoffNanos.get() / 1000
+            )
+        }
+
+    /**
+     * Schedules the task to run after the given delay.
+     *
+     * @return false if the task was rejected because the queue is full.
+     */
+    fun schedule(delayMillis: Long, task: () -> Unit): Boolean {
+        val depth = queueDepth
+        if (depth >= capacity) {
+            rejectedCount.incrementAndGet()
+            return false
+        }
+        maxQueueDepth.accumulateAndGet(depth + 1, ::maxOf)
+        val dueTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis)
+        synchronized(this) {
+            (executor ?: createExecutor().also { executor = it }).schedule({
+                recordHandoff(System.nanoTime() - dueTime)
+                task()
+            }, delayMillis, TimeUnit.MILLISECONDS)
+        }
+        return true
+    }
+
+    /**
+     * Discards all scheduled tasks and releases the thread. A task which is already running is interrupted.
+     */
+    fun shutdown() {
+        synchronized(this) {
+            executor?.shutdownNow()
+            executor = null
+        }
+    }
+
+    private fun recordHandoff(latencyNanos: Long) {
+        val latency = latencyNanos.coerceAtLeast(0)
+        handoffCount.incrementAndGet()
+        totalHandoffNanos.addAndGet(latency)
+        maxHandoffNanos.accumulateAndGet(latency, ::maxOf)
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 16
+        private const val KEEP_ALIVE_SECONDS = 30L
+    }
+
+    /**
+     * @param queueDepth the number of currently queued tasks.
+     * @param maxQueueDepth the highest number of queued tasks observed.
+     * @param rejected the number of tasks rejected because the queue was full.
+     * @param handoffs the number of tasks which have been started.
+     * @param averageHandoffMicros the average time between a task becoming due and it being started.
+     * @param maxHandoffMicros the longest time between a task becoming due and it being started.
+     */
+    data class Statistics(
+        val queueDepth: Int,
+        val maxQueueDepth: Int,
+        val rejected: Long,
+        val handoffs: Long,
+        val averageHandoffMicros: Long,
+        val maxHandoffMicros: Long
+    )
+}
@@ -0,0 +1,74 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.platform
+
+import java.io.IOException
+
+/**
+ * Wraps a [ThemeMonitorService] and records all notifications and state reads into a trace, which
+ * can be replayed using [ReplayThemeMonitorService].
+ */
+class RecordingThemeMonitorService(
+    val delegate: ThemeMonitorService,
+    private val writer: ThemeEventTrace.Writer
+) : ThemeMonitorService by delegate {
+
+    private val startNanos = System.nanoTime()
+
+    override fun createEventHandler(callback: () -> Unit): NativePointer? =
+        createThemeEventHandler { callback() }
+
+    override fun createThemeEventHandler(callback: (ThemeEvent) -> Unit): NativePointer? =
+        delegate.createThemeEventHandler { event ->
+            record(TraceRecord.Kind.EVENT, event.snapshot)
+            callback(event)
+        }
+
+    override fun readSnapshot(): ThemeSnapshot =
+        delegate.readSnapshot().also { record(TraceRecord.Kind.STATE, it) }
+
+    override fun deleteEventHandler(eventHandle: NativePointer) {
+        delegate.deleteEventHandler(eventHandle)
+        try {
+            writer.flush()
+        } catch (e: IOException) {
+            LOGGER.warn("Failed to write theme event trace", e)
+        }
+    }
+
+    private fun record(kind: TraceRecord.Kind, snapshot: ThemeSnapshot?) {
+        try {
+            writer.write(TraceRecord(System.nanoTime() - startNanos, kind, snapshot))
+        } catch (e: IOException) {
+            LOGGER.warn("Failed to write theme event trace", e)
+        }
+    }
+
+    override fun toString(): String = "RecordingThemeMonitorService(delegate=$delegate)"
+
+    companion object {
+        private val LOGGER = PluginLogger<RecordingThemeMonitorService>()
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.platform
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * [ThemeMonitorService] which replays a recorded trace instead of listening to the OS.
+ *
+ * Notifications are delivered on a dedicated thread, similar to the native event loops of the real implementations.
+ * The state returned by [readSnapshot] follows the trace. For notifications which didn't carry a value
+ * the state is advanced to the next recorded state read.
+ *
+ * @param records the trace to replay. See [ThemeEventTrace].
+ * @param speed the factor by which the replay is accelerated. [Double.POSITIVE_INFINITY] replays
+ *              all events without any delay.
+ * @param initialState the state reported before the first record has been replayed.
+ */
+class ReplayThemeMonitorService(
+    records: List<TraceRecord>,
+    private val speed: Double = 1.0,
+    initialState: ThemeSnapshot = records.firstOrNull { it.snapshot != null }?.snapshot ?: ThemeSnapshot()
+) : ThemeMonitorService {
+
+    init {
+        require(speed > 0) { "Speed has to be positive. (speed = $speed)" }
+    }
+
+    private val records = records.toList()
+    private val replayedCount = AtomicLong()
+    private val handlers = ConcurrentHashMap<Long, ReplayThread>()
+    private val nextHandle = AtomicLong(1)
+
+    /*
+     * For each record the state of the next recorded state read at or after it.
+     */
+    private val nextStates: Array<ThemeSnapshot?> = arrayOfNulls<ThemeSnapshot>(this.records.size).also {
+        var next: ThemeSnapshot? = null
+        for (i in this.records.indices.reversed()) {
+            val record = this.records[i]
+            if (record.kind == TraceRecord.Kind.STATE) next = record.snapshot ?: next
+            it[i] = next
+        }
+    }
+
+    @Volatile
+    private var currentState: ThemeSnapshot = initialState
+
+    override val isDarkThemeEnabled: Boolean
+        get() = currentState.dark
+    override val isHighContrastEnabled: Boolean
+        get() = currentState.highContrast
+    override val compatibility: Compatibility = Compatibility(true, "")
+
+    /**
+     * The number of notifications delivered so far.
+     */
+    val replayed: Long
+        get() = replayedCount.get()
+
+    override fun readSnapshot(): ThemeSnapshot = currentState
+
+    override fun createEventHandler(callback: () -> Unit): NativePointer? =
+        createThemeEventHandler { callback() }
+
+    override fun createThemeEventHandler(callback: (ThemeEvent) -> Unit): NativePointer? {
+        val handle = nextHandle.getAndIncrement()
+        val thread = ReplayThread(handle, callback)
+        handlers[handle] = thread
+        thread.start()
+        return NativePointer(handle)
+    }
+
+    override fun deleteEventHandler(eventHandle: NativePointer) {
+        handlers.remove(eventHandle.pointer)?.interrupt()
+    }
+
+    /**
+     * Waits until all replays started so far have delivered their last notification.
+     *
+     * @return false if the timeout elapsed before.
+     */
+    fun awaitCompletion(timeout: Long, unit: TimeUnit): Boolean {
+        val deadline = System.nanoTime() + unit.toNanos(timeout)
+        return handlers.values.toList().all { it.finished.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) }
+    }
+
+    private inner class ReplayThread(handle: Long, private val callback: (ThemeEvent) -> Unit) :
+        Thread("AutoDarkMode-Replay-$handle") {
+        val finished = CountDownLatch(1)
+
+        init {
+            isDaemon = true
+        }
+
+        override fun run() {
+            try {
+                val startNanos = System.nanoTime()
+                records.forEachIndexed { index, record ->
+                    if (speed.isFinite()) {
+                        val dueNanos = startNanos + (record.offsetNanos / speed).toLong()
+                        val waitNanos = dueNanos - System.nanoTime()
+                        if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos)
+                    }
+                    if (isInterrupted) return
+                    when (record.kind) {
+                        TraceRecord.Kind.STATE -> record.snapshot?.let { currentState = it }
+                        TraceRecord.Kind.EVENT -> {
+                            currentState = record.snapshot ?: nextStates[index] ?: currentState
+                            replayedCount.incrementAndGet()
+                            callback(record.event)
+                        }
+                    }
+                }
+            } catch (e: InterruptedException) {
+                // Replay has been stopped.
+            } finally {
+                finished.countDown()
+            }
+        }
+    }
+
+    override fun toString(): String = "ReplayThemeMonitorService(records=${records.size}, speed=$speed)"
+}
@@ -22,8 +22,11 @@ package com.github.weisj.darkmode.platform;
 
 import static com.github.weisj.darkmode.platform.ClassLoaderKt.withContextClassLoader;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.ServiceConfigurationError;
 import java.util.ServiceLoader;
+import java.util.stream.Collectors;
 
 public class ServiceUtil {
 
@@ -46,4 +49,26 @@ public class ServiceUtil {
     public static <T> ServiceLoader<T> load(final Class<T> serviceClass) {
         return withContextClassLoader(serviceClass.getClassLoader(), () -> ServiceLoader.load(serviceClass));
     }
+
+    /**
+     * Instantiates all providers of the given service type which support the current operating system.
+     * Whether a provider is supported is determined by its {@link RequiresOperatingSystem} annotation,
+     * which is read without initializing the provider class.
+     *
+     * @throws ServiceConfigurationError
+     *                                   if a provider can't be loaded.
+     * @see #load(Class)
+     */
+    public static <T> List<T> loadSupported(final Class<T> serviceClass) {
+        return withContextClassLoader(serviceClass.getClassLoader(), () -> ServiceLoader.load(serviceClass)
+                .stream()
+                .filter(provider -> isSupported(provider.type()))
+                .map(ServiceLoader.Provider::get)
+                .collect(Collectors.toList()));
+    }
+
+    private static boolean isSupported(final Class<?> type) {
+        RequiresOperatingSystem requirement = type.getAnnotation(RequiresOperatingSystem.class);
+        return requirement == null || Arrays.stream(requirement.value()).anyMatch(OperatingSystem::isCurrent);
+    }
 }
@@ -0,0 +1,51 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.platform
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.TimeUnit
+
+/**
+ * Durations of the steps needed to start monitoring. Each call to [mark] ends the current step.
+ */
+class StartupTimings {
+    private val startNanos = System.nanoTime()
+
+    @Volatile
+    private var lastNanos = startNanos
+    private val phases = CopyOnWriteArrayList<Pair<String, Long>>()
+
+    fun mark(phase: String) {
+        val now = System.nanoTime()
+        phases.add(phase to TimeUnit.NANOSECONDS.toMillis(now - lastNanos))
+        lastNanos = now
+    }
+
+    val totalMillis: Long
+        get() = TimeUnit.NANOSECONDS.toMillis(lastNanos - startNanos)
+
+    override fun toString(): String =
+        phases.joinToString(prefix = "total=${totalMillis}ms (", postfix = ")") { (name, millis) -> "$name=${millis}ms" }
+}
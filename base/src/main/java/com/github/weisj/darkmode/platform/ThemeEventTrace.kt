@@ -0,0 +1,158 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.platform
+
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * A single entry of a recorded trace.
+ *
+ * @param offsetNanos the time since the start of the recording.
+ * @param kind whether the entry is a notification or the result of reading the state.
+ * @param snapshot the state carried by the entry. Only notifications may lack a snapshot.
+ */
+data class TraceRecord(val offsetNanos: Long, val kind: Kind, val snapshot: ThemeSnapshot?) {
+    enum class Kind {
+        EVENT,
+        STATE
+    }
+
+    val event: ThemeEvent
+        get() = snapshot?.let { ThemeEvent(it) } ?: ThemeEvent.INVALIDATED
+}
+
+/**
+ * Compact binary format for traces of theme notifications.
+ *
+ * The trace starts with a header consisting of the magic bytes `ADMT` and the format version.
+ * It is followed by the records, each of which is encoded as the time since the previous record
+ * in microseconds as a variable length integer and a single byte of flags.
+ */
+object ThemeEventTrace {
+    private val MAGIC = byteArrayOf('A'.code.toByte(), 'D'.code.toByte(), 'M'.code.toByte(), 'T'.code.toByte())
+    private const val VERSION = 1
+
+    private const val FLAG_STATE = 1
+    private const val FLAG_HAS_SNAPSHOT = 1 shl 1
+    private const val FLAG_DARK = 1 shl 2
+    private const val FLAG_HIGH_CONTRAST = 1 shl 3
+
+    fun read(input: InputStream): List<TraceRecord> {
+        val data = DataInputStream(input.buffered())
+        val magic = ByteArray(MAGIC.size).also { data.readFully(it) }
+        if (!magic.contentEquals(MAGIC)) throw IOException("Not a theme event trace")
+        val version = data.readUnsignedByte()
+        if (version != VERSION) throw IOException("Unsupported trace version $version")
+
+        val records = mutableListOf<TraceRecord>()
+        var offsetMicros = 0L
+        while (true) {
+            val delta = readVarLong(data) ?: break
+            offsetMicros += delta
+            val flags = data.readUnsignedByte()
+            val snapshot = if (flags and FLAG_HAS_SNAPSHOT != 0) {
+                ThemeSnapshot(dark = flags and FLAG_DARK != 0, highContrast = flags and FLAG_HIGH_CONTRAST != 0)
+            } else {
+                null
+            }
+            val kind = if (flags and FLAG_STATE != 0) TraceRecord.Kind.STATE else TraceRecord.Kind.EVENT
+            records.add(TraceRecord(TimeUnit.MICROSECONDS.toNanos(offsetMicros), kind, snapshot))
+        }
+        return records
+    }
+
+    fun write(output: OutputStream, records: List<TraceRecord>) {
+        Writer(output).use { writer ->
+            records.forEach { writer.write(it) }
+        }
+    }
+
+    /**
+     * Incrementally writes records to the stream. Records may be written from multiple threads
+     * but have to be written in order of their offsets.
+     */
+    class Writer(output: OutputStream) : AutoCloseable {
+        private val data = DataOutputStream(output.buffered())
+        private val lock = ReentrantLock()
+        private var lastOffsetMicros = 0L
+
+        init {
+            data.write(MAGIC)
+            data.writeByte(VERSION)
+        }
+
+        fun write(record: TraceRecord) = lock.withLock {
+            val offsetMicros = TimeUnit.NANOSECONDS.toMicros(record.offsetNanos)
+            writeVarLong(data, (offsetMicros - lastOffsetMicros).coerceAtLeast(0))
+            lastOffsetMicros = maxOf(lastOffsetMicros, offsetMicros)
+            var flags = if (record.kind == TraceRecord.Kind.STATE) FLAG_STATE else 0
+            record.snapshot?.let {
+                flags = flags or FLAG_HAS_SNAPSHOT
+                if (it.dark) flags = flags or FLAG_DARK
+                if (it.highContrast) flags = flags or FLAG_HIGH_CONTRAST
+            }
+            data.writeByte(flags)
+        }
+
+        fun flush() = lock.withLock { data.flush() }
+
+        override fun close() = lock.withLock { data.close() }
+    }
+
+    private fun writeVarLong(out: DataOutputStream, value: Long) {
+        var v = value
+        while (v and 0x7FL.inv() != 0L) {
+            out.writeByte(((v and 0x7F) or 0x80).toInt())
+            v = v ushr 7
+        }
+        out.writeByte(v.toInt())
+    }
+
+    /*
+     * Returns null if the end of the stream has been reached before the first byte of the value.
+     */
+    private fun readVarLong(input: DataInputStream): Long? {
+        var result = 0L
+        var shift = 0
+        while (true) {
+            val b = input.read()
+            if (b < 0) {
+                if (shift == 0) return null
+                throw EOFException("Truncated trace record")
+            }
+            result = result or ((b and 0x7F).toLong() shl shift)
+            if (b and 0x80 == 0) return result
+            shift += 7
+        }
+    }
+}
@@ -24,13 +24,40 @@
  */
 package com.github.weisj.darkmode.platform
 
+import com.github.weisj.darkmode.platform.ThemeStateTracker.Observation
+
 class ThemeMonitorImpl(
     private val monitorService: ThemeMonitorService,
-    private val onThemeChange: ThemeCallback
+    private val onThemeChange: ThemeCallback,
+    quietWindowMillis: Long = DEFAULT_QUIET_WINDOW_MILLIS
 ) : ThemeMonitor {
 
-    private var state: MonitorState = MonitorState()
+    /*
+     * Native callbacks may arrive in bursts for a single theme change (e.g. multiple signals for
+     * the same setting). They are coalesced and the state is fetched once the burst has settled.
+     * Everything but the hand-off happens on the monitor's executor, so the native event loop
+     * isn't blocked by reading the state or reporting it.
+     */
+    private val executor = MonitorExecutor("AutoDarkMode-ThemeMonitor")
+    private val dispatcher = CoalescingDispatcher(
+        quietWindowMillis,
+        executor,
+        fetch = ::observe,
+        deliver = ::onStateFetched
+    )
+
+    /*
+     * Observations may complete on different threads (native callback threads, the monitor executor
+     * or the EDT when monitoring is started) and hence in a different order than they were made.
+     */
+    private val state = ThemeStateTracker()
     private var listenerHandle: NativePointer? = null
+
+    /*
+     * Dispatches may still be running or just about to deliver when monitoring is stopped. They check
+     * this flag before reporting, such that nothing is reported after stopping.
+     */
+    @Volatile
     override var running: Boolean = false
         set(value) {
             if (field == value) return
@@ -51,44 +78,82 @@ class ThemeMonitorImpl(
         monitorService.install()
     }
 
-    private fun onNotification(forceChange: Boolean = false) {
-        val newState = monitorService.getState()
-        val hasChanged = state != newState
-        LOGGER.info("Received notification. changed=$hasChanged, oldState=$state, newState=$newState")
-        if (hasChanged || forceChange) {
-            state = newState
-            onThemeChange.themeChanged(state.dark, state.highContrast)
+    val notificationStatistics: CoalescingDispatcher.Statistics
+        get() = dispatcher.statistics
+
+    val executorStatistics: MonitorExecutor.Statistics
+        get() = executor.statistics
+
+    /**
+     * The number of observations which were dropped because a more recent one had already been applied.
+     */
+    val staleUpdateCount: Long
+        get() = state.staleUpdateCount
+
+    private fun observe(): Observation {
+        val seq = state.nextSequence()
+        return Observation(seq, monitorService.readSnapshot())
+    }
+
+    private fun onNotification(event: ThemeEvent) {
+        ThemeSwitchMetrics.record(SwitchPhase.EVENT_RECEIVED)
+        val snapshot = event.snapshot
+        if (snapshot != null) {
+            dispatcher.push(state.observation(snapshot))
+        } else {
+            dispatcher.post()
         }
     }
 
+    /*
+     * Even a stale observation reports the current state, as it may carry a forced update or the
+     * observation which has replaced it may not have reported yet.
+     */
+    private fun onStateFetched(observation: Observation, forceChange: Boolean) {
+        if (!running) return
+        ThemeSwitchMetrics.record(SwitchPhase.STATE_FETCHED)
+        if (!state.offer(observation, forceChange)) {
+            LOGGER.info("Dropping stale state ${observation.snapshot} (current state is ${state.current})")
+        }
+        val reported = state.report {
+            if (!running) return@report
+            LOGGER.info("Reporting state $it")
+            onThemeChange.themeChanged(it.dark, it.highContrast)
+        }
+        if (!reported) ThemeSwitchMetrics.abandonTrace()
+    }
+
     override fun requestUpdate() {
-        onNotification(true)
+        dispatcher.post(force = true)
     }
 
     private fun start() {
-        listenerHandle = monitorService.createEventHandler { onNotification() }
+        listenerHandle = monitorService.createThemeEventHandler(::onNotification)
         if (listenerHandle == null) {
             LOGGER.error("Could not create notification listener. Monitoring will not be started")
             return
         }
-        state = monitorService.getState()
-        onThemeChange.themeChanged(state.dark, state.highContrast)
+        onStateFetched(observe(), true)
         LOGGER.info("Started theme monitoring.")
     }
 
     private fun stop() {
-        LOGGER.info("Stopped theme monitoring.")
+        LOGGER.info("Stopped theme monitoring. $notificationStatistics, $executorStatistics, stale=$staleUpdateCount")
         listenerHandle?.let { monitorService.deleteEventHandler(it) }
+        listenerHandle = null
+        executor.shutdown()
+        dispatcher.reset()
     }
 
-    override fun isStillValid(implProvider : ThemeMonitorServiceProvider):Boolean =
-        implProvider.isStillValid(monitorService)
+    override fun isStillValid(implProvider : ThemeMonitorServiceProvider):Boolean = when (monitorService) {
+        // Replays aren't bound to the settings of the provider.
+        is ReplayThemeMonitorService -> true
+        is RecordingThemeMonitorService -> implProvider.isStillValid(monitorService.delegate)
+        else -> implProvider.isStillValid(monitorService)
+    }
 
     companion object {
+        const val DEFAULT_QUIET_WINDOW_MILLIS = 50L
         private val LOGGER = PluginLogger<ThemeMonitorImpl>()
     }
-
-    private fun ThemeMonitorService.getState(): MonitorState = MonitorState(isDarkThemeEnabled, isHighContrastEnabled)
-
-    data class MonitorState(val dark: Boolean = false, val highContrast: Boolean = false)
 }
@@ -24,15 +24,40 @@
  */
 package com.github.weisj.darkmode.platform
 
+import com.github.weisj.darkmode.platform.settings.SettingsChangeSet
 
 interface ThemeMonitorServiceProvider {
     fun create(): ThemeMonitorService
 
     fun isStillValid(impl : ThemeMonitorService?):Boolean = true
+
+    /**
+     * Whether the given settings changes may affect which service this provider creates.
+     * [isStillValid] only needs to be checked if this is the case.
+     */
+    fun isAffectedBy(changes: SettingsChangeSet): Boolean = true
 }
 
 class Compatibility(val isSupported: Boolean, val reason: String)
 
+/**
+ * Immutable state of the theme related OS settings at a single point in time.
+ */
+data class ThemeSnapshot(val dark: Boolean = false, val highContrast: Boolean = false)
+
+/**
+ * Notification about a change of the theme related OS settings.
+ *
+ * @param snapshot the new state if it was delivered alongside the notification. If it is null the state
+ *                 has to be queried using [ThemeMonitorService.readSnapshot].
+ */
+data class ThemeEvent(val snapshot: ThemeSnapshot?) {
+    companion object {
+        @JvmField
+        val INVALIDATED = ThemeEvent(null)
+    }
+}
+
 interface ThemeMonitorService {
     val isDarkThemeEnabled: Boolean
     val isHighContrastEnabled: Boolean
@@ -40,6 +65,19 @@ interface ThemeMonitorService {
     fun createEventHandler(callback: () -> Unit): NativePointer?
     fun deleteEventHandler(eventHandle: NativePointer)
 
+    /**
+     * Variant of [createEventHandler] which passes on the new state if the OS provides it with the notification.
+     * The returned handle has to be deleted using [deleteEventHandler].
+     */
+    fun createThemeEventHandler(callback: (ThemeEvent) -> Unit): NativePointer? =
+        createEventHandler { callback(ThemeEvent.INVALIDATED) }
+
+    /**
+     * Reads all theme related settings at once. Implementations should override this method
+     * if the settings can be retrieved with fewer native calls than by querying each individually.
+     */
+    fun readSnapshot(): ThemeSnapshot = ThemeSnapshot(isDarkThemeEnabled, isHighContrastEnabled)
+
     fun install() {}
 }
 
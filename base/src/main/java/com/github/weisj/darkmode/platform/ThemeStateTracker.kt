@@ -0,0 +1,104 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.platform
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Keeps track of the most recent theme state and of the state which has last been reported.
+ *
+ * Observations may complete on different threads and hence in a different order than they were made.
+ * Every observation is tagged with a sequence number before the state is read. The state only ever
+ * moves forward in sequence, anything older than the current state is dropped.
+ *
+ * Whether a state needs to be reported is decided by comparing it against the last reported one, not against
+ * the state it replaced. Otherwise a change could get lost if a newer observation of the same state is applied
+ * before the one which introduced the change has been reported.
+ */
+class ThemeStateTracker {
+    class Observation(val sequence: Long, val snapshot: ThemeSnapshot)
+
+    private val sequence = AtomicLong()
+    private val state = AtomicReference(Observation(0, ThemeSnapshot()))
+    private val staleCount = AtomicLong()
+
+    private val reportLock = Any()
+
+    // Guarded by reportLock. Nothing has been reported initially, hence the first state is always reported.
+    private var reported: ThemeSnapshot? = null
+    private var reportedSequence = 0L
+    private var forcedSequence = 0L
+
+    /**
+     * The number of observations which were dropped because a more recent one had already been applied.
+     */
+    val staleUpdateCount: Long
+        get() = staleCount.get()
+
+    val current: ThemeSnapshot
+        get() = state.get().snapshot
+
+    fun observation(snapshot: ThemeSnapshot): Observation = Observation(nextSequence(), snapshot)
+
+    /**
+     * Reserves the sequence number for an observation whose state is read afterward.
+     */
+    fun nextSequence(): Long = sequence.incrementAndGet()
+
+    /**
+     * Applies the observation unless a more recent one has already been applied. A forced report is
+     * carried over to the current state even if the observation itself is outdated, unless a state at
+     * least as recent as the observation has already been reported.
+     *
+     * @return whether the observation has been applied.
+     */
+    fun offer(observation: Observation, force: Boolean = false): Boolean {
+        if (force) synchronized(reportLock) { forcedSequence = maxOf(forcedSequence, observation.sequence) }
+        while (true) {
+            val current = state.get()
+            if (observation.sequence < current.sequence) {
+                staleCount.incrementAndGet()
+                return false
+            }
+            if (state.compareAndSet(current, observation)) return true
+        }
+    }
+
+    /**
+     * Reports the current state if it differs from the last reported one or a report has been forced.
+     * Reports are serialized, so they are never delivered out of order.
+     *
+     * @return whether the state has been reported.
+     */
+    fun report(callback: (ThemeSnapshot) -> Unit): Boolean = synchronized(reportLock) {
+        val current = state.get()
+        if (current.snapshot == reported && forcedSequence <= reportedSequence) return false
+        reported = current.snapshot
+        reportedSequence = current.sequence
+        callback(current.snapshot)
+        true
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.platform
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Phases a theme switch passes through from the OS notification until the IDE has been updated.
+ */
+enum class SwitchPhase(val displayName: String) {
+    EVENT_RECEIVED("Native event received"),
+    STATE_FETCHED("State fetched"),
+    REQUEST_SCHEDULED("Request scheduled"),
+    LAF_APPLIED("LAF applied"),
+    SCHEME_APPLIED("Editor scheme applied"),
+    UI_UPDATED("UI updated")
+}
+
+/**
+ * Counters and latency histograms for theme switches.
+ *
+ * A switch is traced from the first native event (or the first state read if the update wasn't triggered
+ * by the OS) until [completeTrace] is called. For every phase reached in between the time since the start
+ * of the trace is recorded.
+ */
+object ThemeSwitchMetrics {
+    private val counters = Array(SwitchPhase.values().size) { AtomicLong() }
+    private val histograms = Array(SwitchPhase.values().size) { LatencyHistogram() }
+    private val blocking = Array(SwitchPhase.values().size) { LatencyHistogram() }
+    private val endToEnd = LatencyHistogram()
+
+    /*
+     * Start of the currently active trace as given by System.nanoTime or NO_TRACE.
+     */
+    private val traceStart = AtomicLong(NO_TRACE)
+
+    fun record(phase: SwitchPhase) {
+        val now = System.nanoTime()
+        counters[phase.ordinal].incrementAndGet()
+        if (phase <= SwitchPhase.STATE_FETCHED) traceStart.compareAndSet(NO_TRACE, now)
+        val start = traceStart.get()
+        if (start != NO_TRACE) histograms[phase.ordinal].recordNanos(now - start)
+    }
+
+    /**
+     * Records how long the event dispatch thread was blocked by the given phase.
+     */
+    fun recordBlocking(phase: SwitchPhase, nanos: Long) {
+        blocking[phase.ordinal].recordNanos(nanos)
+    }
+
+    /**
+     * Runs the given block and records its duration as the blocking time of the given phase.
+     */
+    inline fun <T> measureBlocking(phase: SwitchPhase, block: () -> T): T {
+        val start = System.nanoTime()
+        try {
+            return block()
+        } finally {
+            recordBlocking(phase, System.nanoTime() - start)
+        }
+    }
+
+    /**
+     * Ends the active trace and records its duration as the end-to-end switch latency.
+     */
+    fun completeTrace() {
+        val start = traceStart.getAndSet(NO_TRACE)
+        if (start != NO_TRACE) endToEnd.recordNanos(System.nanoTime() - start)
+    }
+
+    /**
+     * Ends the active trace without recording it e.g. if the state didn't change.
+     */
+    fun abandonTrace() {
+        traceStart.set(NO_TRACE)
+    }
+
+    fun count(phase: SwitchPhase): Long = counters[phase.ordinal].get()
+
+    fun latency(phase: SwitchPhase): LatencyHistogram.Snapshot = histograms[phase.ordinal].snapshot
+
+    fun blockingTime(phase: SwitchPhase): LatencyHistogram.Snapshot = blocking[phase.ordinal].snapshot
+
+    val endToEndLatency: LatencyHistogram.Snapshot
+        get() = endToEnd.snapshot
+
+    fun reset() {
+        counters.forEach { it.set(0) }
+        histograms.forEach { it.reset() }
+        blocking.forEach { it.reset() }
+        endToEnd.reset()
+        traceStart.set(NO_TRACE)
+    }
+
+    fun dump(): String = buildString {
+        appendLine("End-to-end switch latency: $endToEndLatency")
+        SwitchPhase.values().forEach {
+            appendLine("${it.displayName}: total=${count(it)}, since start of switch: ${latency(it)}")
+            val blockingTime = blockingTime(it)
+            if (blockingTime.count > 0) appendLine("    EDT blocked: $blockingTime")
+        }
+    }
+
+    private const val NO_TRACE = Long.MIN_VALUE
+}
@@ -24,6 +24,8 @@
  */
 package com.github.weisj.darkmode.platform.settings
 
+import com.intellij.openapi.util.Disposer
+import java.util.PriorityQueue
 import kotlin.reflect.KProperty0
 
 interface Condition : () -> Boolean, Observable<Condition> {
@@ -49,7 +51,7 @@ class DefaultCondition(initial: Boolean, private val cond: () -> Boolean = { ini
     override var value by observable(initial)
 
     override operator fun invoke(): Boolean {
-        value = cond()
+        ConditionGraph.batch { value = cond() }
         return value
     }
 }
@@ -57,6 +59,7 @@ class DefaultCondition(initial: Boolean, private val cond: () -> Boolean = { ini
 class LazyCondition<T : Any>(private val valueProp: Lazy<ValueProperty<T>>, private val condition: (T) -> Boolean) :
     Condition, Observable<Condition> by DefaultObservable() {
     override var value: Boolean by observable(true)
+    private var registration: ListenerRegistration? = null
 
     override fun invoke(): Boolean {
         return value
@@ -64,44 +67,133 @@ class LazyCondition<T : Any>(private val valueProp: Lazy<ValueProperty<T>>, priv
 
     @Suppress("UNCHECKED_CAST")
     override fun build() {
+        registration?.let { Disposer.dispose(it) }
         valueProp.value.effective<Any>().let {
             value = condition(it.preview as T)
-            it.registerListener(ValueProperty<Any>::preview) { _, _ ->
-                value = condition(it.preview as T)
+            registration = it.registerListener(ValueProperty<Any>::preview) { _, _ ->
+                ConditionGraph.batch { value = condition(it.preview as T) }
             }
         }
     }
 }
 
-class CompoundCondition(
-    private val first: Condition,
-    private val second: Condition,
-    private val combinator: (Boolean, Boolean) -> Boolean
+/**
+ * Condition whose value is derived from the values of other conditions.
+ *
+ * The value is memoized and only recomputed if one of the inputs changes. See [ConditionGraph] for
+ * how changes are propagated.
+ */
+abstract class DerivedCondition(
+    private val inputs: List<Condition>,
+    private val compute: () -> Boolean
 ) : Condition, Observable<Condition> by DefaultObservable() {
-    override var value by observable(combinator(first.value, second.value))
-
+    override var value by observable(compute())
+
+    /*
+     * Length of the longest path to an input which isn't derived.
+     */
+    internal val rank: Int = 1 + inputs.maxOf { (it as? DerivedCondition)?.rank ?: 0 }
+    private val registrations = mutableListOf<ListenerRegistration>()
+    private var built = false
+
+    /*
+     * The memoized value is kept up to date by the listeners registered in build. Until then, or
+     * while a change of an input hasn't been propagated yet, the inputs are pulled and the value is recomputed.
+     */
     override fun invoke(): Boolean {
-        value = combinator(first(), second())
+        if (built && !ConditionGraph.isScheduled(this)) return value
+        ConditionGraph.batch {
+            inputs.forEach { it() }
+            ConditionGraph.unschedule(this)
+            recompute()
+        }
         return value
     }
 
     override fun build() {
-        first.build()
-        second.build()
-        first.registerListener(Condition::value) { _, _ ->
-            value = combinator(first.value, second())
+        registrations.forEach { Disposer.dispose(it) }
+        registrations.clear()
+        built = true
+        ConditionGraph.batch {
+            inputs.forEach { input ->
+                input.build()
+                registrations += input.registerListener(Condition::value) { _, _ -> ConditionGraph.schedule(this) }
+            }
+        }
+    }
+
+    internal fun recompute() {
+        value = compute()
+    }
+}
+
+class CompoundCondition(
+    first: Condition,
+    second: Condition,
+    combinator: (Boolean, Boolean) -> Boolean
+) : DerivedCondition(listOf(first, second), { combinator(first.value, second.value) })
+
+class NotCondition(condition: Condition) : DerivedCondition(listOf(condition), { !condition.value })
+
+/**
+ * Propagates changes of conditions to the derived conditions depending on them.
+ *
+ * Changes made inside a [batch] only schedule the dependent conditions. Once the outermost batch
+ * completes they are recomputed in the order of their rank, so every condition is recomputed after
+ * all of its inputs are up to date. Hence, each derived condition changes and notifies its listeners
+ * at most once per batch and never with an intermediate value.
+ */
+internal object ConditionGraph {
+    private class Propagation {
+        val queue = PriorityQueue<DerivedCondition>(compareBy { it.rank })
+        val scheduled = HashSet<DerivedCondition>()
+        var active = false
+    }
+
+    // Conditions are usually only changed on the event dispatch thread, but settings may be loaded elsewhere.
+    private val propagation = ThreadLocal.withInitial { Propagation() }
+
+    fun batch(action: () -> Unit) {
+        val current = propagation.get()
+        if (current.active) {
+            action()
+            return
         }
-        second.registerListener(Condition::value) { _, _ ->
-            value = combinator(first(), second.value)
+        current.active = true
+        try {
+            action()
+            while (true) {
+                val next = current.queue.poll() ?: break
+                current.scheduled.remove(next)
+                next.recompute()
+            }
+        } finally {
+            current.queue.clear()
+            current.scheduled.clear()
+            current.active = false
         }
     }
+
+    fun isScheduled(condition: DerivedCondition): Boolean = condition in propagation.get().scheduled
+
+    fun unschedule(condition: DerivedCondition) {
+        val current = propagation.get()
+        if (current.scheduled.remove(condition)) current.queue.remove(condition)
+    }
+
+    fun schedule(condition: DerivedCondition) {
+        val current = propagation.get()
+        if (!current.scheduled.add(condition)) return
+        current.queue.add(condition)
+        if (!current.active) batch {}
+    }
 }
 
 infix fun Condition.and(other: Condition): Condition = CompoundCondition(this, other, Boolean::and)
 
 infix fun Condition.or(other: Condition): Condition = CompoundCondition(this, other, Boolean::or)
 
-fun not(cond: Condition): Condition = CompoundCondition(cond, conditionOf(true)) { a, _ -> !a }
+fun not(cond: Condition): Condition = NotCondition(cond)
 
 fun conditionOf(bool: Boolean): Condition = ConstantCondition(bool)
 
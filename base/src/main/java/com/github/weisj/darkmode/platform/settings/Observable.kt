@@ -24,6 +24,9 @@
  */
 package com.github.weisj.darkmode.platform.settings
 
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.util.Disposer
+import java.lang.ref.WeakReference
 import kotlin.properties.ReadWriteProperty
 import kotlin.reflect.KMutableProperty0
 import kotlin.reflect.KProperty
@@ -31,32 +34,185 @@ import kotlin.reflect.KProperty1
 
 typealias BiConsumer<T> = (T, T) -> Unit
 
+/**
+ * Stores the values of observable properties and notifies listeners about changes.
+ *
+ * Every property is assigned a slot when its delegate is provided, which the delegate keeps. Values and
+ * listeners are stored in arrays indexed by the slot, so accessing a property doesn't involve any lookups.
+ * Only registering listeners by name looks up the slot.
+ * Boolean and Int values are stored unboxed. Listener arrays are copy-on-write, which means
+ * notifying them doesn't allocate and listeners may be added while notifying.
+ */
 class ObservableManager<T> {
-    private val properties = mutableMapOf<String, Any>()
-    private val listeners = mutableMapOf<String, MutableList<BiConsumer<Any>>>()
+    private val slotsByName = HashMap<String, Int>()
+    private var values = EMPTY_VALUES
+    private var primitives = EMPTY_PRIMITIVES
+    private var kinds = EMPTY_KINDS
+    private var listeners = EMPTY_LISTENERS
+    private var writeListeners = EMPTY_WRITE_LISTENERS
+    private var slotCount = 0
+
+    /*
+     * Marker for values which haven't been computed yet.
+     */
+    private class LazyInitialValue(val initializer: () -> Any)
+
+    /*
+     * Returns the slot for the property with the given name. Listeners may be registered before the
+     * delegate has been provided, hence slots are allocated on demand.
+     */
+    private fun slotOf(name: String): Int = slotsByName.getOrPut(name) {
+        if (slotCount == kinds.size) grow()
+        slotCount++
+    }
+
+    private fun grow() {
+        val size = maxOf(INITIAL_CAPACITY, kinds.size * 2)
+        values = values.copyOf(size)
+        primitives = primitives.copyOf(size)
+        kinds = kinds.copyOf(size)
+        listeners = listeners.copyOf(size)
+        writeListeners = writeListeners.copyOf(size)
+    }
+
+    private fun hasListeners(slot: Int): Boolean = listeners[slot] != null
+
+    private fun notifyListeners(slot: Int, old: Any, new: Any) {
+        val slotListeners = listeners[slot] ?: return
+        val transaction = Transaction.current()
+        if (transaction != null) {
+            transaction.markDirty(this, slot, old, new)
+            return
+        }
+        dispatch(slotListeners, old, new)
+    }
+
+    private fun notifyWritten(slot: Int) {
+        val slotListeners = writeListeners[slot] ?: return
+        for (listener in slotListeners) listener()
+    }
+
+    internal fun flush(slot: Int, old: Any, new: Any) {
+        listeners[slot]?.let { dispatch(it, old, new) }
+    }
+
+    /*
+     * Listeners of a lazy value which hasn't been resolved didn't receive an initial value. They are
+     * notified like upon registration instead, as computing the old value may be expensive.
+     */
+    private fun dispatch(slotListeners: Array<BiConsumer<Any>>, old: Any, new: Any) {
+        if (old === UNRESOLVED) {
+            for (listener in slotListeners) listener(new, new)
+        } else if (old != new) {
+            for (listener in slotListeners) listener(old, new)
+        }
+    }
 
-    private fun updateValue(name: String, old: Any, new: Any) {
-        if (old != new) {
-            listeners[name]?.forEach { it(old, new) }
+    private fun resolvedValue(slot: Int): Any? = when (kinds[slot]) {
+        KIND_BOOLEAN -> primitives[slot] != 0
+        KIND_INT -> primitives[slot]
+        KIND_LAZY -> (values[slot] as LazyInitialValue).initializer().also {
+            values[slot] = it
+            kinds[slot] = KIND_OBJECT
         }
+        else -> values[slot]
+    }
+
+    /*
+     * The current value if it is available without computing it.
+     */
+    private fun availableValue(slot: Int): Any? = if (kinds[slot] == KIND_LAZY) null else resolvedValue(slot)
+
+    private fun setObject(slot: Int, value: Any) {
+        val old = values[slot]
+        val wasLazy = kinds[slot] == KIND_LAZY
+        values[slot] = value
+        kinds[slot] = KIND_OBJECT
+        notifyWritten(slot)
+        if (!hasListeners(slot)) return
+        notifyListeners(slot, if (wasLazy) UNRESOLVED else old!!, value)
     }
 
-    private fun updateValue(name: String, value: Any) {
-        updateValue(name, properties.put(name, value)!!, value)
+    /*
+     * Listeners receive boxed values. The values are only boxed if there are listeners.
+     */
+    private fun setBoolean(slot: Int, value: Boolean) {
+        val new = if (value) 1 else 0
+        val old = primitives[slot]
+        primitives[slot] = new
+        notifyWritten(slot)
+        if (old != new && hasListeners(slot)) notifyListeners(slot, old != 0, value)
     }
 
-    fun registerListener(name: String, biConsumer: BiConsumer<Any>) {
-        listeners.getOrPut(name) { mutableListOf() }.add(biConsumer)
-        properties[name]?.let { biConsumer(it, it) }
+    private fun setInt(slot: Int, value: Int) {
+        val old = primitives[slot]
+        primitives[slot] = value
+        notifyWritten(slot)
+        if (old != value && hasListeners(slot)) notifyListeners(slot, old, value)
+    }
+
+    private fun addListener(slot: Int, listener: BiConsumer<Any>) {
+        val current = listeners[slot]
+        listeners[slot] = if (current == null) arrayOf(listener) else current + listener
+    }
+
+    private fun removeListener(slot: Int, listener: BiConsumer<Any>) {
+        val remaining = listeners[slot]?.filter { it !== listener } ?: return
+        listeners[slot] = if (remaining.isEmpty()) null else remaining.toTypedArray()
+    }
+
+    /**
+     * Registers a listener for the property with the given name. The listener is immediately invoked
+     * with the current value if the property has one. Lazy values aren't computed for this. Instead, the
+     * listener receives their value once it is set.
+     *
+     * The listener is removed when the returned registration is disposed, which happens at the latest
+     * when the given parent is disposed. A weak listener is additionally removed once the registration
+     * is no longer referenced.
+     */
+    fun registerListener(
+        name: String,
+        parent: Disposable? = null,
+        weak: Boolean = false,
+        biConsumer: BiConsumer<Any>
+    ): ListenerRegistration {
+        val slot = slotOf(name)
+        val listener = if (weak) WeakListener(slot, biConsumer) else biConsumer
+        addListener(slot, listener)
+        val registration = ListenerRegistration(biConsumer) { removeListener(slot, listener) }
+        parent?.let { Disposer.register(it, registration) }
+        availableValue(slot)?.let { biConsumer(it, it) }
+        return registration
+    }
+
+    /**
+     * Registers a listener which is invoked after every write of the property with the given name, even if
+     * the value didn't change. In contrast to [registerListener] neither the old nor the new value is read,
+     * hence a value which is expensive to compute isn't computed because of the listener.
+     */
+    fun registerWriteListener(name: String, parent: Disposable? = null, listener: () -> Unit): ListenerRegistration {
+        val slot = slotOf(name)
+        val current = writeListeners[slot]
+        writeListeners[slot] = if (current == null) arrayOf(listener) else current + listener
+        val registration = ListenerRegistration(listener) {
+            val remaining = writeListeners[slot]?.filter { it !== listener }
+            writeListeners[slot] = if (remaining.isNullOrEmpty()) null else remaining.toTypedArray()
+        }
+        parent?.let { Disposer.register(it, registration) }
+        return registration
     }
 
     fun removeListeners(name: String) {
-        properties.remove(name)
+        listeners[slotOf(name)] = null
     }
 
     @Suppress("UNCHECKED_CAST")
-    inline fun <V : Any> registerListener(property: KProperty1<T, V>, crossinline consumer: BiConsumer<V>) =
-        registerListener(property.name) { old, new -> consumer(old as V, new as V) }
+    inline fun <V : Any> registerListener(
+        property: KProperty1<T, V>,
+        parent: Disposable? = null,
+        weak: Boolean = false,
+        crossinline consumer: BiConsumer<V>
+    ) = registerListener(property.name, parent, weak) { old, new -> consumer(old as V, new as V) }
 
     inline fun <reified V : Any> removeListeners(property: KProperty1<T, V>) =
         removeListeners(property.name)
@@ -65,32 +221,210 @@ class ObservableManager<T> {
         prop: KProperty<*>,
         value: V
     ) : ReadWriteProperty<T, V> {
+        private val slot = slotOf(prop.name)
+
+        init {
+            values[slot] = value
+            kinds[slot] = KIND_OBJECT
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        override operator fun getValue(thisRef: T, property: KProperty<*>) = values[slot] as V
+
+        override operator fun setValue(thisRef: T, property: KProperty<*>, value: V) = setObject(slot, value)
+    }
+
+    /*
+     * The primitive properties intentionally don't implement ReadWriteProperty, as overriding its generic
+     * accessors would force the values to be boxed.
+     */
+    inner class BooleanRWProperty(
+        prop: KProperty<*>,
+        value: Boolean
+    ) {
+        private val slot = slotOf(prop.name)
+
+        init {
+            primitives[slot] = if (value) 1 else 0
+            kinds[slot] = KIND_BOOLEAN
+        }
+
+        operator fun getValue(thisRef: T, property: KProperty<*>): Boolean = primitives[slot] != 0
+
+        operator fun setValue(thisRef: T, property: KProperty<*>, value: Boolean) = setBoolean(slot, value)
+    }
+
+    inner class IntRWProperty(
+        prop: KProperty<*>,
+        value: Int
+    ) {
+        private val slot = slotOf(prop.name)
+
+        init {
+            primitives[slot] = value
+            kinds[slot] = KIND_INT
+        }
+
+        operator fun getValue(thisRef: T, property: KProperty<*>): Int = primitives[slot]
+
+        operator fun setValue(thisRef: T, property: KProperty<*>, value: Int) = setInt(slot, value)
+    }
+
+    /**
+     * Property whose initial value is only computed once it is first needed.
+     */
+    inner class LazyWrappingRWProperty<V : Any>(
+        prop: KProperty<*>,
+        initializer: () -> V
+    ) : ReadWriteProperty<T, V> {
+        private val slot = slotOf(prop.name)
 
         init {
-            properties[prop.name] = value
+            values[slot] = LazyInitialValue(initializer)
+            kinds[slot] = KIND_LAZY
         }
 
         @Suppress("UNCHECKED_CAST")
-        override operator fun getValue(thisRef: T, property: KProperty<*>) = properties[property.name] as V
+        override operator fun getValue(thisRef: T, property: KProperty<*>) = resolvedValue(slot) as V
 
-        override operator fun setValue(thisRef: T, property: KProperty<*>, value: V) =
-            updateValue(property.name, value)
+        override operator fun setValue(thisRef: T, property: KProperty<*>, value: V) = setObject(slot, value)
     }
 
     inner class WrappingDelegateRWProperty<V : Any>(
+        prop: KProperty<*>,
         private val delegate: KMutableProperty0<V>
     ) : ReadWriteProperty<T, V> {
+        private val slot = slotOf(prop.name)
 
         override operator fun getValue(thisRef: T, property: KProperty<*>) = delegate.get()
 
         override operator fun setValue(thisRef: T, property: KProperty<*>, value: V) {
+            // Reading the old value may be expensive e.g. if it is a lazily computed default.
+            if (!hasListeners(slot)) {
+                delegate.set(value)
+                notifyWritten(slot)
+                return
+            }
             val old = delegate.get()
             delegate.set(value)
-            updateValue(property.name, old, value)
+            notifyWritten(slot)
+            notifyListeners(slot, old, value)
+        }
+    }
+
+    /*
+     * Only the registration keeps the actual listener reachable.
+     */
+    private inner class WeakListener(private val slot: Int, listener: BiConsumer<Any>) : BiConsumer<Any> {
+        private val reference = WeakReference(listener)
+
+        override fun invoke(old: Any, new: Any) {
+            reference.get()?.invoke(old, new) ?: removeListener(slot, this)
+        }
+    }
+
+    private companion object {
+        const val INITIAL_CAPACITY = 2
+
+        /*
+         * Kind of the value stored in a slot. Slots which are only used to register listeners
+         * e.g. for properties backed by a KMutableProperty0 don't store a value.
+         */
+        const val KIND_NONE: Byte = 0
+        const val KIND_OBJECT: Byte = 1
+        const val KIND_LAZY: Byte = 2
+        const val KIND_BOOLEAN: Byte = 3
+        const val KIND_INT: Byte = 4
+
+        /*
+         * Old value of lazy values which have been replaced before being computed.
+         */
+        val UNRESOLVED = Any()
+
+        val EMPTY_VALUES = arrayOf<Any?>()
+        val EMPTY_PRIMITIVES = IntArray(0)
+        val EMPTY_KINDS = ByteArray(0)
+        val EMPTY_LISTENERS = arrayOf<Array<BiConsumer<Any>>?>()
+        val EMPTY_WRITE_LISTENERS = arrayOf<Array<() -> Unit>?>()
+    }
+}
+
+/**
+ * Collects changes of observable properties made on the current thread while a [transaction] is running.
+ * Listeners are notified once the transaction completes, even if it completes exceptionally. Each changed
+ * property notifies its listeners once with its value before the transaction and its final value, and not
+ * at all if they are equal.
+ */
+internal class Transaction private constructor() {
+    private class DirtySlot(val manager: ObservableManager<*>, val slot: Int, val old: Any) {
+        lateinit var new: Any
+    }
+
+    private var dirty = LinkedHashMap<Pair<ObservableManager<*>, Int>, DirtySlot>()
+
+    fun markDirty(manager: ObservableManager<*>, slot: Int, old: Any, new: Any) {
+        dirty.getOrPut(manager to slot) { DirtySlot(manager, slot, old) }.new = new
+    }
+
+    /*
+     * Listeners may change further properties. These are collected as well and notified in the
+     * next round until no more changes occur.
+     */
+    private fun commit() {
+        while (dirty.isNotEmpty()) {
+            val round = dirty
+            dirty = LinkedHashMap()
+            round.values.forEach { it.manager.flush(it.slot, it.old, it.new) }
+        }
+    }
+
+    companion object {
+        private val current = ThreadLocal<Transaction?>()
+
+        fun current(): Transaction? = current.get()
+
+        fun <T> run(block: () -> T): T {
+            if (current.get() != null) return block()
+            val transaction = Transaction()
+            current.set(transaction)
+            try {
+                val result = try {
+                    block()
+                } catch (e: Throwable) {
+                    // Changes made before the failure have been applied, hence listeners still need to know.
+                    try {
+                        transaction.commit()
+                    } catch (suppressed: Throwable) {
+                        e.addSuppressed(suppressed)
+                    }
+                    throw e
+                }
+                transaction.commit()
+                return result
+            } finally {
+                current.remove()
+            }
         }
     }
 }
 
+/**
+ * Runs the given block with notifications of observable properties deferred until it completes.
+ * Nested transactions are part of the outermost one.
+ */
+fun <T> transaction(block: () -> T): T = Transaction.run(block)
+
+/**
+ * Handle for a listener registered with an [ObservableManager]. Disposing it removes the listener.
+ */
+class ListenerRegistration internal constructor(
+    // Keeps weak listeners reachable as long as the registration is.
+    @Suppress("unused") private val listener: Any,
+    private val remove: () -> Unit
+) : Disposable {
+    override fun dispose() = remove()
+}
+
 interface DelegateProvider<T, V> {
     operator fun provideDelegate(
         thisRef: T,
@@ -108,6 +442,16 @@ class ObservableValue<T, V : Any>(
     ): ReadWriteProperty<T, V> = delegate.WrappingRWProperty(prop, value)
 }
 
+class LazyObservableValue<T, V : Any>(
+    private val delegate: ObservableManager<T>,
+    private val initializer: () -> V
+) : DelegateProvider<T, V> {
+    override operator fun provideDelegate(
+        thisRef: T,
+        prop: KProperty<*>
+    ): ReadWriteProperty<T, V> = delegate.LazyWrappingRWProperty(prop, initializer)
+}
+
 class ObservablePropertyValue<T, V : Any>(
     private val delegate: ObservableManager<T>,
     private val property: KMutableProperty0<V>
@@ -115,7 +459,27 @@ class ObservablePropertyValue<T, V : Any>(
     override operator fun provideDelegate(
         thisRef: T,
         prop: KProperty<*>
-    ): ReadWriteProperty<T, V> = delegate.WrappingDelegateRWProperty(property)
+    ): ReadWriteProperty<T, V> = delegate.WrappingDelegateRWProperty(prop, property)
+}
+
+class BooleanObservableValue<T>(
+    private val delegate: ObservableManager<T>,
+    private val value: Boolean
+) {
+    operator fun provideDelegate(
+        thisRef: T,
+        prop: KProperty<*>
+    ): ObservableManager<T>.BooleanRWProperty = delegate.BooleanRWProperty(prop, value)
+}
+
+class IntObservableValue<T>(
+    private val delegate: ObservableManager<T>,
+    private val value: Int
+) {
+    operator fun provideDelegate(
+        thisRef: T,
+        prop: KProperty<*>
+    ): ObservableManager<T>.IntRWProperty = delegate.IntRWProperty(prop, value)
 }
 
 interface Observable<T> {
@@ -129,13 +493,30 @@ open class DefaultObservable<T> : Observable<T> {
 fun <T, V : Any> Observable<T>.observable(value: V): DelegateProvider<T, V> =
     ObservableValue(manager, value)
 
+fun <T> Observable<T>.observable(value: Boolean): BooleanObservableValue<T> =
+    BooleanObservableValue(manager, value)
+
+fun <T> Observable<T>.observable(value: Int): IntObservableValue<T> =
+    IntObservableValue(manager, value)
+
+fun <T, V : Any> Observable<T>.lazyObservable(initializer: () -> V): DelegateProvider<T, V> =
+    LazyObservableValue(manager, initializer)
+
 fun <T, V : Any> Observable<T>.observable(prop: KMutableProperty0<V>): DelegateProvider<T, V> =
     ObservablePropertyValue(manager, prop)
 
 inline fun <T, V : Any> Observable<T>.registerListener(
     property: KProperty1<T, V>,
+    parent: Disposable? = null,
+    weak: Boolean = false,
     crossinline consumer: BiConsumer<V>
-) = manager.registerListener(property, consumer)
+) = manager.registerListener(property, parent, weak, consumer)
+
+fun <T, V : Any> Observable<T>.registerWriteListener(
+    property: KProperty1<T, V>,
+    parent: Disposable? = null,
+    listener: () -> Unit
+) = manager.registerWriteListener(property.name, parent, listener)
 
 inline fun <T, reified V : Any> Observable<T>.removeListeners(
     property: KProperty1<T, V>
@@ -24,6 +24,7 @@
  */
 package com.github.weisj.darkmode.platform.settings
 
+import kotlin.properties.ReadWriteProperty
 import kotlin.reflect.KMutableProperty0
 import kotlin.reflect.KProperty
 import kotlin.reflect.KProperty0
@@ -64,3 +65,18 @@ inline fun <reified T, R : Any> KMutableProperty0<R>.withInType(): KMutablePrope
 operator fun <T> KMutableProperty0<T>.setValue(target: Any?, property: KProperty<*>, value: T) = set(value)
 
 operator fun <T> KProperty0<T>.getValue(target: Any?, property: KProperty<*>): T = get()
+
+/**
+ * Delegate for a property whose default value is only computed if the property is read before it has been set.
+ */
+class LazyDefault<T : Any>(private val default: () -> T) : ReadWriteProperty<Any?, T> {
+    private var value: T? = null
+
+    override fun getValue(thisRef: Any?, property: KProperty<*>): T = value ?: default().also { value = it }
+
+    override fun setValue(thisRef: Any?, property: KProperty<*>, value: T) {
+        this.value = value
+    }
+}
+
+fun <T : Any> lazyDefault(default: () -> T): ReadWriteProperty<Any?, T> = LazyDefault(default)
@@ -24,6 +24,7 @@
  */
 package com.github.weisj.darkmode.platform.settings
 
+import com.intellij.openapi.Disposable
 import kotlin.reflect.KClass
 import kotlin.reflect.KMutableProperty0
 
@@ -31,12 +32,23 @@ data class SettingsState(var entries: List<Entry> = emptyList())
 
 data class Entry(var groupIdentifier: String = "", var name: String = "", var value: String = "")
 
+/**
+ * Identifies a persistent property by the identifier path of its group and its name.
+ */
+data class PropertyIdentifier(val groupIdentifier: String, val name: String)
+
 @DslMarker
 annotation class PropertyMarker
 
 interface SettingsContainerProvider {
     fun isEnabled(state: SettingsState): Boolean
     fun create(): SettingsContainer
+
+    /**
+     * Whether the settings can be shown to the user. In contrast to [isEnabled] this may be expensive
+     * e.g. if it requires loading a native library, as it is only checked once the settings are displayed.
+     */
+    fun isAvailable(): Boolean = true
 }
 
 open class SingletonSettingsContainerProvider(
@@ -52,21 +64,55 @@ interface SettingsContainer : SettingsGroup {
     val unnamedGroup: SettingsGroup
     val hiddenGroup: SettingsGroup
 
+    /**
+     * Index of the properties of this container. Until [buildRegistry] has been called the index is
+     * recomputed on every access, so properties may still be added while the container is constructed.
+     */
+    val registry: SettingsRegistry
+
+    /**
+     * Builds the [registry] from the current properties. Called by [init] once the container is complete.
+     */
+    fun buildRegistry()
+
     fun onSettingsLoaded()
 
     override fun allProperties(): List<ValueProperty<Any>> =
         subgroups.map { it.allProperties() }.flatten() + unnamedGroup + hiddenGroup
 }
 
+/**
+ * Updates properties of the container as one transaction. Listeners are notified only once all
+ * updates have been made, and at most once per property.
+ */
+fun <T> SettingsContainer.transaction(block: SettingsContainer.() -> T): T = Transaction.run { block() }
+
 fun SettingsContainer.init() {
+    buildRegistry()
     allProperties().forEach { it.activeCondition.build() }
 }
 
 fun SettingsGroup.getWithName(name: String): Lazy<ValueProperty<Any>> =
     lazy {
-        allProperties().findWithName(name).value ?: parent?.getWithName(name)?.value
+        val registry = rootContainer()?.registry
+        if (registry != null) {
+            registry.findWithName(name, this)
+        } else {
+            allProperties().findWithName(name).value ?: parent?.getWithName(name)?.value
+        }
     }.assertNonNull("Property with name '$name' not found.")
 
+private fun SettingsGroup.rootContainer(): SettingsContainer? {
+    var group: SettingsGroup = this
+    while (true) {
+        if (group is SettingsGroupBuilder) group = group.group
+        group = group.parent ?: return group as? SettingsContainer
+    }
+}
+
+val ValueProperty<*>.propertyIdentifier: PropertyIdentifier
+    get() = PropertyIdentifier(group.getIdentifierPath(), name)
+
 fun <T> SettingsGroup.getWithProperty(prop: KMutableProperty0<T>): Lazy<ValueProperty<T>> =
     getWithName(prop.name).map { it.castSafelyTo<ValueProperty<T>>()!! }
 
@@ -91,10 +137,20 @@ abstract class DefaultSettingsContainer private constructor(
 
     override val subgroups: MutableList<NamedSettingsGroup> = mutableListOf()
 
-    override fun onSettingsLoaded() { /* default : do nothing */ }
-    override fun allProperties(): List<ValueProperty<Any>> {
-        return super<SettingsContainer>.allProperties()
+    @Volatile
+    private var builtRegistry: SettingsRegistry? = null
+
+    override val registry: SettingsRegistry
+        get() = builtRegistry ?: SettingsRegistry(collectProperties())
+
+    override fun buildRegistry() {
+        builtRegistry = SettingsRegistry(collectProperties())
     }
+
+    override fun onSettingsLoaded() { /* default : do nothing */ }
+    override fun allProperties(): List<ValueProperty<Any>> = builtRegistry?.allProperties ?: collectProperties()
+
+    private fun collectProperties(): List<ValueProperty<Any>> = super<SettingsContainer>.allProperties()
 }
 
 fun <T> SettingsGroup.add(property: ValueProperty<T>) {
@@ -133,6 +189,14 @@ open class DefaultSettingsGroup internal constructor(
 ) : SettingsGroup, MutableList<ValueProperty<Any>> by properties {
     override val subgroups: MutableList<NamedSettingsGroup> = mutableListOf()
 
+    /*
+     * The parent of a group never changes, hence the path only needs to be computed once.
+     * It is used as part of the identifier for every property of the group.
+     */
+    private val cachedIdentifierPath by lazy { super.getIdentifierPath().intern() }
+
+    override fun getIdentifierPath(): String = cachedIdentifierPath
+
     constructor(parent: SettingsGroup? = null, identifier: String) : this(
         identifier,
         parent,
@@ -191,23 +255,42 @@ typealias PersistentValueProperty<T> = TransformingValueProperty<T, String>
 fun ValueProperty<*>.toTransformer(): TransformingValueProperty<Any, Any>? =
     castSafelyTo<TransformingValueProperty<Any, Any>>()
 
-inline fun <reified T : Any> ValueProperty<T>.asPersistent(): PersistentValueProperty<T>? =
-    castSafelyTo<TransformingValueProperty<T, Any>>()?.let {
+inline fun <reified T : Any> ValueProperty<T>.asPersistent(): PersistentValueProperty<T>? = when (this) {
+    // Known to be persistent. This avoids computing the value, which may be expensive.
+    is SimplePersistentValueProperty<*>, is PersistentChoiceProperty<*> -> castSafelyTo<PersistentValueProperty<T>>()
+    else -> castSafelyTo<TransformingValueProperty<T, Any>>()?.let {
         if (it.value is String) it.castSafelyTo<PersistentValueProperty<T>>() else null
     }
+}
 
 inline fun <reified K : Any> ValueProperty<*>.effective(): ValueProperty<K> = effective(K::class)
 
 fun <K : Any> ValueProperty<*>.effective(type: KClass<K>): ValueProperty<K> {
+    val prop = effectiveProperty()
+    if (!type.isInstance(prop.value)) throw IllegalArgumentException("Value ${prop.value} isn't of type $type.")
+    if (!type.isInstance(prop.preview)) throw IllegalArgumentException("Preview ${prop.value} isn't of type $type.")
+    return prop.castSafelyTo()!!
+}
+
+/**
+ * Registers a listener which is invoked whenever the value the property is ultimately backed by is written.
+ * See [ObservableManager.registerWriteListener].
+ */
+fun ValueProperty<*>.registerBackingWriteListener(
+    parent: Disposable? = null,
+    listener: () -> Unit
+): ListenerRegistration =
+    effectiveProperty().manager.registerWriteListener(ValueProperty<*>::value.name, parent, listener)
+
+private fun ValueProperty<*>.effectiveProperty(): ValueProperty<*> {
+    if (this is SimpleTransformingValueProperty<*, *>) return effectiveProperty
     var prop: ValueProperty<*> = this
     var trans: TransformingValueProperty<Any, Any>? = prop.toTransformer()
     while (trans != null) {
         prop = trans.backingProperty
         trans = prop.toTransformer()
     }
-    if (!type.isInstance(prop.value)) throw IllegalArgumentException("Value ${prop.value} isn't of type $type.")
-    if (!type.isInstance(prop.preview)) throw IllegalArgumentException("Preview ${prop.value} isn't of type $type.")
-    return prop.castSafelyTo()!!
+    return prop
 }
 
 class SimpleValueProperty<T : Any> internal constructor(
@@ -219,12 +302,16 @@ class SimpleValueProperty<T : Any> internal constructor(
     override val description: String = description ?: property.name
     override val name: String = name ?: property.name
     override var value: T by observable(property)
-    override var preview: T by observable(value)
-    override var activeCondition: Condition = conditionOf(true)
 
-    init {
+    /*
+     * The preview only needs to follow the value once it has been computed. Until then
+     * the value can be changed without reading the previous one.
+     */
+    override var preview: T by lazyObservable {
         registerListener(ValueProperty<T>::value) { _, new -> preview = new }
+        value
     }
+    override var activeCondition: Condition = conditionOf(true)
 }
 
 open class SimpleTransformingValueProperty<R : Any, T : Any> internal constructor(
@@ -237,8 +324,13 @@ open class SimpleTransformingValueProperty<R : Any, T : Any> internal constructo
     override var activeCondition by backingProperty::activeCondition
     override val group by backingProperty::group
 
+    /*
+     * The chain of backing properties is fixed, hence the effective property can be resolved once.
+     */
+    internal val effectiveProperty: ValueProperty<*> = backingProperty.effectiveProperty()
+
     final override var value: T by transformer.delegate(backingProp = backingProperty::value)
-    override var preview: T by observable(value)
+    override var preview: T by lazyObservable { value }
 }
 
 class SimplePersistentValueProperty<R : Any>(
@@ -42,7 +42,7 @@ private data class UnnamedGroupCounter(var count: Int) {
 private val SettingsGroup.unnamedGroupCounter
     get() = UnnamedGroupCounter.get(this)
 
-class SettingsGroupBuilder(group: SettingsGroup) : SettingsGroup by group {
+class SettingsGroupBuilder(internal val group: SettingsGroup) : SettingsGroup by group {
     internal var activeCondition: Condition? = (group.parent as? SettingsGroupBuilder)?.activeCondition
 
     fun KMutableProperty0<Boolean>.isTrue() = isTrue(getWithProperty(this))
@@ -0,0 +1,75 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.platform.settings
+
+/**
+ * The persistent properties whose values differ between two snapshots of the settings.
+ */
+class SettingsChangeSet(val changes: Map<PropertyIdentifier, Change>) {
+
+    data class Change(val oldValue: String?, val newValue: String?)
+
+    val identifiers: Set<PropertyIdentifier>
+        get() = changes.keys
+
+    fun isEmpty(): Boolean = changes.isEmpty()
+
+    operator fun contains(identifier: PropertyIdentifier): Boolean = identifier in changes
+
+    operator fun get(identifier: PropertyIdentifier): Change? = changes[identifier]
+
+    fun affects(property: ValueProperty<*>): Boolean = property.propertyIdentifier in changes
+
+    fun affects(container: SettingsContainer): Boolean =
+        changes.keys.any { it in container.registry.persistentProperties }
+
+    override fun toString(): String = changes.entries.joinToString(prefix = "[", postfix = "]") { (id, change) ->
+        "${id.groupIdentifier}:${id.name}: ${change.oldValue} -> ${change.newValue}"
+    }
+
+    companion object {
+        @JvmField
+        val EMPTY = SettingsChangeSet(emptyMap())
+
+        fun between(
+            before: Map<PropertyIdentifier, String>,
+            after: Map<PropertyIdentifier, String>
+        ): SettingsChangeSet {
+            val changes = LinkedHashMap<PropertyIdentifier, Change>()
+            after.forEach { (identifier, newValue) ->
+                val oldValue = before[identifier]
+                if (oldValue != newValue) changes[identifier] = Change(oldValue, newValue)
+            }
+            before.keys.forEach { if (it !in after) changes[it] = Change(before[it], null) }
+            return if (changes.isEmpty()) EMPTY else SettingsChangeSet(changes)
+        }
+    }
+}
+
+/**
+ * The current values of all persistent properties.
+ */
+fun SettingsRegistry.persistentValues(): Map<PropertyIdentifier, String> =
+    persistentProperties.mapValues { (_, prop) -> prop.value }
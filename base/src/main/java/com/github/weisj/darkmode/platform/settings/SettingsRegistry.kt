@@ -0,0 +1,79 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.platform.settings
+
+/**
+ * Index of all properties of a [SettingsContainer].
+ *
+ * The registry is a snapshot of the properties at the time it was created. [SettingsContainer.init]
+ * builds the registry once the container is complete, i.e. no properties may be added afterward.
+ */
+class SettingsRegistry internal constructor(properties: List<ValueProperty<Any>>) {
+
+    /**
+     * All properties of the container in the order of [SettingsContainer.allProperties].
+     */
+    val allProperties: List<ValueProperty<Any>> = properties.toList()
+
+    /**
+     * All persistent properties of the container keyed by their identifier.
+     */
+    val persistentProperties: Map<PropertyIdentifier, PersistentValueProperty<Any>>
+
+    private val byName: Map<String, List<ValueProperty<Any>>> = allProperties.groupBy { it.name }
+
+    init {
+        val persistent = LinkedHashMap<PropertyIdentifier, PersistentValueProperty<Any>>()
+        allProperties.forEach { prop ->
+            val persistentProp = prop.asPersistent() ?: return@forEach
+            val identifier = persistentProp.propertyIdentifier
+            persistent.put(identifier, persistentProp)?.let { other ->
+                throw IllegalStateException(
+                    "$persistentProp clashes with $other. Property with identifier $identifier already defined."
+                )
+            }
+        }
+        persistentProperties = persistent
+    }
+
+    /**
+     * Finds the property with the given name as seen from the given group. Properties inside the group
+     * take precedence over those of its parents.
+     */
+    fun findWithName(name: String, scope: SettingsGroup?): ValueProperty<Any>? {
+        val candidates = byName[name] ?: return null
+        if (candidates.size == 1) return candidates[0]
+        var group = scope
+        while (group != null) {
+            val path = group.getIdentifierPath()
+            candidates.firstOrNull { it.group.getIdentifierPath().isWithin(path) }?.let { return it }
+            group = group.parent
+        }
+        return candidates[0]
+    }
+
+    private fun String.isWithin(path: String): Boolean =
+        this == path || (startsWith(path) && this[path.length] == ':')
+}
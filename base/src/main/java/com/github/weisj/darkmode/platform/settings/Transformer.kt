@@ -37,40 +37,91 @@ interface Transformer<R, T> {
     val read: (R) -> T
 }
 
-class DefaultTransformer<R, T>(
-    override val write: (T) -> R,
-    override val read: (R) -> T
-) : Transformer<R, T>
+/**
+ * Transformer consisting of a sequence of stages per direction. Composing such transformers concatenates
+ * their stages, so a chain of transformers is evaluated by a single function per direction instead of
+ * nested lambdas. Identity stages are dropped.
+ */
+class DefaultTransformer<R, T> internal constructor(
+    internal val writeStages: Array<(Any?) -> Any?>,
+    internal val readStages: Array<(Any?) -> Any?>
+) : Transformer<R, T> {
+
+    @Suppress("UNCHECKED_CAST")
+    constructor(write: (T) -> R, read: (R) -> T) : this(
+        arrayOf(write as (Any?) -> Any?),
+        arrayOf(read as (Any?) -> Any?)
+    )
+
+    @Suppress("UNCHECKED_CAST")
+    override val write: (T) -> R = fuse(writeStages) as (T) -> R
 
-infix fun <R, T, S> Transformer<R, T>.andThen(other: Transformer<T, S>): Transformer<R, S> {
-    return transformerOf(other.write andThen write, read andThen other.read)
+    @Suppress("UNCHECKED_CAST")
+    override val read: (R) -> T = fuse(readStages) as (R) -> T
+
+    companion object {
+        private val IDENTITY: (Any?) -> Any? = { it }
+
+        private fun fuse(stages: Array<(Any?) -> Any?>): (Any?) -> Any? = when (stages.size) {
+            0 -> IDENTITY
+            1 -> stages[0]
+            else -> { value ->
+                var result = value
+                for (stage in stages) result = stage(result)
+                result
+            }
+        }
+    }
 }
 
+@Suppress("UNCHECKED_CAST")
+private val Transformer<*, *>.writeStages: Array<(Any?) -> Any?>
+    get() = (this as? DefaultTransformer<*, *>)?.writeStages ?: arrayOf(write as (Any?) -> Any?)
+
+@Suppress("UNCHECKED_CAST")
+private val Transformer<*, *>.readStages: Array<(Any?) -> Any?>
+    get() = (this as? DefaultTransformer<*, *>)?.readStages ?: arrayOf(read as (Any?) -> Any?)
+
+infix fun <R, T, S> Transformer<R, T>.andThen(other: Transformer<T, S>): Transformer<R, S> =
+    DefaultTransformer(other.writeStages + writeStages, readStages + other.readStages)
+
 fun <R, T> Transformer<R, T?>.readFallback(fallback: T): Transformer<R, T> {
-    return this andThen transformerOf({ t -> t }, { t -> t ?: fallback })
+    return this andThen DefaultTransformer<T?, T>(arrayOf(), arrayOf({ t -> t ?: fallback }))
 }
 
 fun <R, T> Transformer<R?, T>.writeFallback(fallback: R): Transformer<R, T> {
-    return transformerOf<R, R?>({ t -> t ?: fallback }, { t -> t }) andThen this
+    return DefaultTransformer<R, R?>(arrayOf({ t -> t ?: fallback }), arrayOf()) andThen this
 }
 
 fun <R, T> Transformer<R?, T>.writeFallback(fallbackProvider: () -> R): Transformer<R, T> {
-    return transformerOf<R, R?>({ t -> t ?: fallbackProvider() }, { t -> t }) andThen this
+    return DefaultTransformer<R, R?>(arrayOf({ t -> t ?: fallbackProvider() }), arrayOf()) andThen this
 }
 
-object IdentityTransformer : Transformer<Any, Any> by DefaultTransformer({ t -> t }, { t -> t })
+object IdentityTransformer : Transformer<Any, Any> by DefaultTransformer(arrayOf(), arrayOf())
 
 fun <T : Any> identityTransformer(): Transformer<T, T> =
     IdentityTransformer.castSafelyTo<Transformer<T, T>>()!!
 
 fun <R, T> transformerOf(write: (T) -> R, read: (R) -> T) = DefaultTransformer(write, read)
 
+/*
+ * Reads are memoized until the value of the backing property changes. Transformers are
+ * expected to be pure, hence comparing the backing value by identity is sufficient.
+ */
 internal class TransformerDelegate<R, T>(
     private val prop: KMutableProperty0<R>,
     private val transformer: Transformer<R, T>
 ) : ReadWriteProperty<Any, T> {
+
+    private class Memo<R, T>(val backingValue: R, val value: T)
+
+    @Volatile
+    private var memo: Memo<R, T>? = null
+
     override fun getValue(thisRef: Any, property: KProperty<*>): T {
-        return transformer.read(prop.get())
+        val backingValue = prop.get()
+        memo?.let { if (it.backingValue === backingValue) return it.value }
+        return transformer.read(backingValue).also { memo = Memo(backingValue, it) }
     }
 
     override fun setValue(thisRef: Any, property: KProperty<*>, value: T) {
@@ -0,0 +1,21 @@
+plugins {
+    kotlin("jvm")
+    id("me.champeau.jmh")
+}
+
+dependencies {
+    val ideaVersion = rootProject.extra["idea.version"]
+    jmh(projects.autoDarkModeBase)
+    // Required at runtime by the logger used in base.
+    jmh("com.jetbrains.intellij.platform:util:$ideaVersion")
+    jmh(kotlin("stdlib"))
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("reports/jmh/results.json"))
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+}
@@ -0,0 +1,75 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.benchmarks
+
+import com.github.weisj.darkmode.platform.settings.Condition
+import com.github.weisj.darkmode.platform.settings.DefaultCondition
+import com.github.weisj.darkmode.platform.settings.and
+import com.github.weisj.darkmode.platform.settings.conditionOf
+import com.github.weisj.darkmode.platform.settings.or
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.util.concurrent.TimeUnit
+
+/**
+ * Propagation of a changed value through a chain of [com.github.weisj.darkmode.platform.settings.CompoundCondition]s.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class ConditionBenchmark {
+
+    @Param("1", "4", "16")
+    var depth: Int = 0
+
+    private lateinit var source: DefaultCondition
+    private lateinit var root: Condition
+
+    @Setup
+    fun setup() {
+        source = DefaultCondition(true)
+        var condition: Condition = source
+        for (i in 0 until depth) {
+            condition = if (i % 2 == 0) condition and conditionOf(true) else condition or conditionOf(false)
+        }
+        root = condition
+        root.build()
+    }
+
+    @Benchmark
+    fun propagate(): Boolean {
+        source.value = !source.value
+        return root.value
+    }
+
+    @Benchmark
+    fun evaluate(): Boolean = root()
+}
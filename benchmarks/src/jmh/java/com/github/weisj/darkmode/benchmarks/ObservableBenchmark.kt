@@ -0,0 +1,77 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.benchmarks
+
+import com.github.weisj.darkmode.platform.settings.DefaultObservable
+import com.github.weisj.darkmode.platform.settings.Observable
+import com.github.weisj.darkmode.platform.settings.observable
+import com.github.weisj.darkmode.platform.settings.registerListener
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+import java.util.concurrent.TimeUnit
+
+/**
+ * Reading and writing properties managed by an [com.github.weisj.darkmode.platform.settings.ObservableManager].
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class ObservableBenchmark {
+
+    @Param("0", "1", "8")
+    var listenerCount: Int = 0
+
+    private lateinit var bean: Bean
+    private var counter = 0
+
+    @Setup
+    fun setup() {
+        bean = Bean()
+        repeat(listenerCount) {
+            bean.registerListener(Bean::value) { _, new -> counter += new }
+        }
+    }
+
+    @Benchmark
+    fun get(): Int = bean.value
+
+    @Benchmark
+    fun set(blackhole: Blackhole) {
+        bean.value = bean.value + 1
+        blackhole.consume(counter)
+    }
+
+    class Bean : Observable<Bean> by DefaultObservable() {
+        var value: Int by observable(0)
+        var other: String by observable("")
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.benchmarks
+
+import com.github.weisj.darkmode.platform.settings.DefaultSettingsContainer
+import com.github.weisj.darkmode.platform.settings.Entry
+import com.github.weisj.darkmode.platform.settings.PersistentValueProperty
+import com.github.weisj.darkmode.platform.settings.PropertyIdentifier
+import com.github.weisj.darkmode.platform.settings.SettingsState
+import com.github.weisj.darkmode.platform.settings.group
+import com.github.weisj.darkmode.platform.settings.init
+import com.github.weisj.darkmode.platform.settings.persistentBooleanProperty
+import com.github.weisj.darkmode.platform.settings.persistentStringProperty
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.util.concurrent.TimeUnit
+
+/**
+ * Conversion between settings containers and their persistent [SettingsState] in the same way
+ * as it is done by the plugin's options component.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class SettingsSerializationBenchmark {
+
+    @Param("2", "8")
+    var groupCount: Int = 0
+
+    private lateinit var properties: Map<PropertyIdentifier, PersistentValueProperty<Any>>
+    private lateinit var state: SettingsState
+
+    @Setup
+    fun setup() {
+        val container = BenchmarkSettings(groupCount).apply { init() }
+        properties = container.registry.persistentProperties
+        state = getState()
+    }
+
+    @Benchmark
+    fun getState(): SettingsState =
+        SettingsState(properties.map { (k, v) -> Entry(k.groupIdentifier, k.name, v.value) })
+
+    @Benchmark
+    fun loadState() {
+        state.entries.forEach {
+            properties[PropertyIdentifier(it.groupIdentifier, it.name)]?.value = it.value
+        }
+    }
+
+    private class BenchmarkSettings(groupCount: Int) : DefaultSettingsContainer(identifier = "benchmark_settings") {
+        private val values = Array(groupCount) { Values() }
+
+        init {
+            values.forEachIndexed { i, v ->
+                group("Group $i") {
+                    persistentBooleanProperty(value = v::enabled)
+                    persistentBooleanProperty(value = v::checked)
+                    group {
+                        persistentStringProperty(value = v::first)
+                        persistentStringProperty(value = v::second)
+                    }
+                }
+            }
+        }
+    }
+
+    private class Values {
+        var enabled = true
+        var checked = false
+        var first = "first"
+        var second = "second"
+    }
+}
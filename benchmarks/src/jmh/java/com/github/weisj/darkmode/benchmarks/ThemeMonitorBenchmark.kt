@@ -0,0 +1,107 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.benchmarks
+
+import com.github.weisj.darkmode.platform.Compatibility
+import com.github.weisj.darkmode.platform.NativePointer
+import com.github.weisj.darkmode.platform.ThemeCallback
+import com.github.weisj.darkmode.platform.ThemeEvent
+import com.github.weisj.darkmode.platform.ThemeMonitorImpl
+import com.github.weisj.darkmode.platform.ThemeMonitorService
+import com.github.weisj.darkmode.platform.ThemeSnapshot
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import java.util.concurrent.TimeUnit
+
+/**
+ * Throughput of native notifications arriving at the monitor i.e. the work done on the native callback thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class ThemeMonitorBenchmark {
+
+    @Param("0", "50")
+    var quietWindowMillis: Long = 0
+
+    private lateinit var service: FakeThemeMonitorService
+    private lateinit var monitor: ThemeMonitorImpl
+    private val pushedEvent = ThemeEvent(ThemeSnapshot(dark = true))
+
+    @Setup(Level.Trial)
+    fun setup() {
+        service = FakeThemeMonitorService()
+        monitor = ThemeMonitorImpl(service, NoOpCallback, quietWindowMillis)
+        monitor.running = true
+    }
+
+    @TearDown(Level.Trial)
+    fun tearDown() {
+        monitor.running = false
+    }
+
+    @Benchmark
+    fun postNotification() {
+        service.handler!!(ThemeEvent.INVALIDATED)
+    }
+
+    @Benchmark
+    fun pushNotification() {
+        service.handler!!(pushedEvent)
+    }
+
+    private object NoOpCallback : ThemeCallback {
+        override fun themeChanged(isDark: Boolean, isHighContrast: Boolean) { /* do nothing */ }
+    }
+
+    private class FakeThemeMonitorService : ThemeMonitorService {
+        @Volatile
+        var handler: ((ThemeEvent) -> Unit)? = null
+
+        override val isDarkThemeEnabled: Boolean = false
+        override val isHighContrastEnabled: Boolean = false
+        override val compatibility: Compatibility = Compatibility(true, "")
+
+        override fun createEventHandler(callback: () -> Unit): NativePointer? =
+            createThemeEventHandler { callback() }
+
+        override fun createThemeEventHandler(callback: (ThemeEvent) -> Unit): NativePointer? {
+            handler = callback
+            return NativePointer(1L)
+        }
+
+        override fun deleteEventHandler(eventHandle: NativePointer) {
+            handler = null
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.benchmarks
+
+import com.github.weisj.darkmode.platform.settings.Transformer
+import com.github.weisj.darkmode.platform.settings.andThen
+import com.github.weisj.darkmode.platform.settings.identityTransformer
+import com.github.weisj.darkmode.platform.settings.transformerOf
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.util.concurrent.TimeUnit
+
+/**
+ * Reading and writing through chains of [Transformer]s composed using [andThen].
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class TransformerBenchmark {
+
+    @Param("1", "4", "16")
+    var chainLength: Int = 0
+
+    private lateinit var transformer: Transformer<Int, String>
+    private var value = 0
+
+    @Setup
+    fun setup() {
+        var chain: Transformer<Int, Int> = identityTransformer()
+        repeat(chainLength - 1) {
+            chain = chain andThen transformerOf<Int, Int>({ it - 1 }, { it + 1 })
+        }
+        transformer = chain andThen transformerOf(String::toInt, Int::toString)
+    }
+
+    @Benchmark
+    fun read(): String = transformer.read(value++)
+
+    @Benchmark
+    fun write(): Int = transformer.write("42")
+}
@@ -80,15 +80,19 @@ struct EventHandler {
 
     SignalType signal_type;
 
+    /*
+     * The signals are emitted on the Gtk thread, hence the settings can be read here directly
+     * and are passed on to the callback. This saves the callback another round trip through `getCurrentTheme`.
+     */
     void gtk_runCallBack() {
-        runCallBack();
+        runCallBack(gtk_settings->property_gtk_theme_name().get_value());
     }
 
     void gio_runCallBack(Glib::ustring const &name) {
-        runCallBack();
+        runCallBack(gio_settings->get_string(name));
     }
 
-    void runCallBack() {
+    void runCallBack(Glib::ustring const &theme) {
         bool detachNecessary = false;
         int getEnvStat = jvm->GetEnv((void**) &env, JNI_VERSION_1_6);
         if (getEnvStat == JNI_EDETACHED) {
@@ -99,9 +103,16 @@ struct EventHandler {
         }
 
         jclass runnableClass = env->GetObjectClass(callback);
-        jmethodID runMethodId = env->GetMethodID(runnableClass, "settingChanged", "()V");
+        jmethodID runMethodId = env->GetMethodID(runnableClass, "settingChanged", "(Ljava/lang/String;)V");
         if (runMethodId) {
-            env->CallVoidMethod(callback, runMethodId);
+            jstring themeStr = env->NewStringUTF(theme.c_str());
+            env->CallVoidMethod(callback, runMethodId, themeStr);
+            env->DeleteLocalRef(themeStr);
+        } else {
+            // Callbacks compiled against API version 1 don't receive the theme.
+            env->ExceptionClear();
+            runMethodId = env->GetMethodID(runnableClass, "settingChanged", "()V");
+            if (runMethodId) env->CallVoidMethod(callback, runMethodId);
         }
         if (env->ExceptionCheck()) {
             env->ExceptionDescribe();
@@ -192,6 +203,17 @@ Java_com_github_weisj_darkmode_platform_linux_gtk_GtkNative_deleteEventHandler(J
     }
 }
 
+/*
+ * Version of the interface between the native library and GtkNative. Has to be incremented
+ * whenever it changes.
+ *  1: settingChanged()V (implicit, the function didn't exist)
+ *  2: settingChanged(Ljava/lang/String;)V
+ */
+JNIEXPORT jint JNICALL
+Java_com_github_weisj_darkmode_platform_linux_gtk_GtkNative_getApiVersion(JNIEnv *env, jclass obj) {
+    return 2;
+}
+
 JNIEXPORT void JNICALL
 Java_com_github_weisj_darkmode_platform_linux_gtk_GtkNative_init(JNIEnv *env, jclass obj) {
     ensure_gio_init();
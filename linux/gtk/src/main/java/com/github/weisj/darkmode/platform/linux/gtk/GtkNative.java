@@ -22,7 +22,25 @@ package com.github.weisj.darkmode.platform.linux.gtk;
 
 public class GtkNative {
 
-    public interface EventHandlerCallback { void settingChanged(); }
+    /**
+     * The version of the native interface this class has been written against. See {@link #getNativeApiVersion()}.
+     */
+    public static final int API_VERSION = 2;
+
+    public interface EventHandlerCallback {
+        /**
+         * @param theme the value of the changed setting i.e. the new theme name or color scheme.
+         *              Null if the native library doesn't provide it.
+         */
+        void settingChanged(final String theme);
+
+        /**
+         * Invoked by native libraries of API version 1, which don't pass the changed setting.
+         */
+        default void settingChanged() {
+            settingChanged(null);
+        }
+    }
 
     private GtkNative() {
         throw new IllegalStateException("Native methods holder");
@@ -35,4 +53,18 @@ public class GtkNative {
     static native void deleteEventHandler(final long handle);
 
     static native void init();
+
+    private static native int getApiVersion();
+
+    /**
+     * The interface version of the loaded native library. Libraries built before the version was
+     * introduced report version 1.
+     */
+    static int getNativeApiVersion() {
+        try {
+            return getApiVersion();
+        } catch (final UnsatisfiedLinkError e) {
+            return 1;
+        }
+    }
 }
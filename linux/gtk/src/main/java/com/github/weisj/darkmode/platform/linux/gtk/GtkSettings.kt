@@ -27,18 +27,20 @@ package com.github.weisj.darkmode.platform.linux.gtk
 import com.github.weisj.darkmode.platform.LibraryUtil
 import com.github.weisj.darkmode.platform.Notifications
 import com.github.weisj.darkmode.platform.OneTimeAction
+import com.github.weisj.darkmode.platform.OperatingSystem
 import com.github.weisj.darkmode.platform.PluginLogger
+import com.github.weisj.darkmode.platform.RequiresOperatingSystem
 import com.github.weisj.darkmode.platform.settings.*
 import com.google.auto.service.AutoService
 
 @AutoService(SettingsContainerProvider::class)
+@RequiresOperatingSystem(OperatingSystem.LINUX)
 class GtkSettingsProvider : SingletonSettingsContainerProvider({ GtkSettings }, enabled = LibraryUtil.isLinux) {
-    override fun isEnabled(state: SettingsState): Boolean {
-        if (shouldBeEnabled(state)) return checkGtkLibrary()
-        return false
-    }
 
-    private fun shouldBeEnabled(state: SettingsState): Boolean {
+    // Loading the library is deferred until the settings are shown to keep it out of loading the settings state.
+    override fun isAvailable(): Boolean = checkGtkLibrary()
+
+    override fun isEnabled(state: SettingsState): Boolean {
         if (!super.isEnabled(state)) return false
         if (LibraryUtil.isGtk) return true
         return Entry(
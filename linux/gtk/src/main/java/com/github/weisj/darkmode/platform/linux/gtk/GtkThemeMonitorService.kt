@@ -27,7 +27,9 @@ package com.github.weisj.darkmode.platform.linux.gtk
 import com.github.weisj.darkmode.platform.Compatibility
 import com.github.weisj.darkmode.platform.NativePointer
 import com.github.weisj.darkmode.platform.PluginLogger
+import com.github.weisj.darkmode.platform.ThemeEvent
 import com.github.weisj.darkmode.platform.ThemeMonitorService
+import com.github.weisj.darkmode.platform.ThemeSnapshot
 import com.github.weisj.darkmode.platform.linux.gtk.GtkVariants.guessFrom
 
 enum class SignalType(internal val id : Int) {
@@ -47,25 +49,17 @@ class GtkThemeMonitorService(
         get() {
             val currentTheme = currentGtkTheme
             LOGGER.info("Checking whether dark mode is enabled. The current theme is '$currentTheme'")
-            return if (signalType == SignalType.GIO_NEW) {
-                currentTheme == "dark"
-            } else {
-                if (GtkSettings.guessLightAndDarkThemes) {
-                    currentTheme == guessFrom(currentTheme)[GtkVariants.Variant.Night]
-                } else {
-                    GtkSettings.darkGtkTheme.name == currentTheme
-                }
-            }
+            return isDarkTheme(currentTheme)
         }
     override val isHighContrastEnabled: Boolean
         get() {
-            if (GtkSettings.guessLightAndDarkThemes) return false
-            if (signalType == SignalType.GIO_NEW) return false
+            if (!canDetectHighContrast()) return false
             val currentTheme = currentGtkTheme
             LOGGER.info("Checking whether high contrast mode is enabled. The current theme is '$currentTheme'")
-            return GtkSettings.highContrastGtkTheme.name == currentTheme
+            return isHighContrastTheme(currentTheme)
         }
     override val compatibility: Compatibility = if (GtkLibrary.get().isLoaded) {
+        checkNativeApiVersion()
         Compatibility(true, "")
     } else {
         Compatibility(false, "Desktop environment isn't one of GNOME, Xfce, I3")
@@ -73,10 +67,54 @@ class GtkThemeMonitorService(
     val currentGtkTheme: String
         get() = GtkNative.getCurrentTheme(signalType.id)
 
-    override fun createEventHandler(callback: () -> Unit): NativePointer? {
-        return NativePointer(GtkNative.createEventHandler(signalType.id) {
-            LOGGER.info("Received notification")
-            callback()
+    /*
+     * Outdated libraries still work, but only report that the theme changed without the new value.
+     */
+    private fun checkNativeApiVersion() {
+        val nativeVersion = GtkNative.getNativeApiVersion()
+        if (nativeVersion != GtkNative.API_VERSION) {
+            LOGGER.warn("Native library has api version $nativeVersion but ${GtkNative.API_VERSION} was expected.")
+        }
+    }
+
+    /*
+     * Both properties are derived from the same theme name, hence it suffices to query it only once.
+     */
+    override fun readSnapshot(): ThemeSnapshot {
+        val currentTheme = currentGtkTheme
+        LOGGER.info("Reading theme snapshot. The current theme is '$currentTheme'")
+        return snapshotOf(currentTheme)
+    }
+
+    private fun snapshotOf(currentTheme: String): ThemeSnapshot = ThemeSnapshot(
+        dark = isDarkTheme(currentTheme),
+        highContrast = canDetectHighContrast() && isHighContrastTheme(currentTheme)
+    )
+
+    private fun isDarkTheme(currentTheme: String): Boolean =
+        if (signalType == SignalType.GIO_NEW) {
+            currentTheme == "dark"
+        } else {
+            if (GtkSettings.guessLightAndDarkThemes) {
+                currentTheme == guessFrom(currentTheme)[GtkVariants.Variant.Night]
+            } else {
+                GtkSettings.darkGtkTheme.name == currentTheme
+            }
+        }
+
+    private fun canDetectHighContrast(): Boolean =
+        !GtkSettings.guessLightAndDarkThemes && signalType != SignalType.GIO_NEW
+
+    private fun isHighContrastTheme(currentTheme: String): Boolean =
+        GtkSettings.highContrastGtkTheme.name == currentTheme
+
+    override fun createEventHandler(callback: () -> Unit): NativePointer? =
+        createThemeEventHandler { callback() }
+
+    override fun createThemeEventHandler(callback: (ThemeEvent) -> Unit): NativePointer? {
+        return NativePointer(GtkNative.createEventHandler(signalType.id) { theme: String? ->
+            LOGGER.info("Received notification. The current theme is '$theme'")
+            callback(theme?.let { ThemeEvent(snapshotOf(it)) } ?: ThemeEvent.INVALIDATED)
         })
     }
 
@@ -3,6 +3,8 @@ package com.github.weisj.darkmode.platform.linux
 import com.github.weisj.darkmode.platform.LibraryUtil
 import com.github.weisj.darkmode.platform.Notifications
 import com.github.weisj.darkmode.platform.OneTimeAction
+import com.github.weisj.darkmode.platform.OperatingSystem
+import com.github.weisj.darkmode.platform.RequiresOperatingSystem
 import com.github.weisj.darkmode.platform.linux.gtk.GtkLibrary
 import com.github.weisj.darkmode.platform.settings.DefaultSettingsContainer
 import com.github.weisj.darkmode.platform.settings.SettingsContainerProvider
@@ -17,6 +19,7 @@ import com.github.weisj.darkmode.platform.settings.transformerOf
 import com.google.auto.service.AutoService
 
 @AutoService(SettingsContainerProvider::class)
+@RequiresOperatingSystem(OperatingSystem.LINUX)
 class AdvancedLinuxSettingsProvider :
     SingletonSettingsContainerProvider(
         { AdvancedLinuxSettings },
@@ -59,13 +62,6 @@ object AdvancedLinuxSettings : DefaultSettingsContainer(identifier = "advanced_l
     }
 
     var implType: ImplementationType = recommendedImplType()
-        set(value) {
-            field = if (value.needsGtkLibrary && GtkLibrary.get().isLoaded) {
-                value
-            } else {
-                ImplementationType.XDG_DESKTOP
-            }
-        }
 
     private var overrideGtkDetection = false
 
@@ -95,6 +91,17 @@ object AdvancedLinuxSettings : DefaultSettingsContainer(identifier = "advanced_l
         }
     }
 
+    /**
+     * The implementation which should be used. Whether the GTK library is available is only checked here,
+     * so loading the settings doesn't load the native library. If it isn't available the Xdg implementation
+     * is used as fallback. The selected [implType] is kept, so it takes effect once the library is available.
+     */
+    fun resolveImplType(): ImplementationType {
+        val type = implType
+        if (type.needsGtkLibrary && !GtkLibrary.get().isLoaded) return ImplementationType.XDG_DESKTOP
+        return type
+    }
+
     override fun onSettingsLoaded() {
         if (!overrideGtkDetection) advancedSettingsLogAction()
     }
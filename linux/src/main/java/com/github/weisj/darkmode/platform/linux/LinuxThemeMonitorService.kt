@@ -31,12 +31,14 @@ import com.github.weisj.darkmode.platform.ThemeMonitorServiceProvider
 import com.github.weisj.darkmode.platform.linux.gtk.GtkThemeMonitorService
 import com.github.weisj.darkmode.platform.linux.gtk.SignalType
 import com.github.weisj.darkmode.platform.linux.xdg.XdgThemeMonitorService
+import com.github.weisj.darkmode.platform.settings.SettingsChangeSet
+import com.github.weisj.darkmode.platform.settings.getWithProperty
 
 class LinuxThemeMonitorServiceProvider : ThemeMonitorServiceProvider {
     override fun create(): ThemeMonitorService = createCompatibleMonitorService()
 
     private fun createCompatibleMonitorService(): ThemeMonitorService {
-        when (AdvancedLinuxSettings.implType) {
+        when (AdvancedLinuxSettings.resolveImplType()) {
             ImplementationType.GTK_XSETTINGS ->
                 return GtkThemeMonitorService(SignalType.GTK)
 
@@ -61,8 +63,11 @@ class LinuxThemeMonitorServiceProvider : ThemeMonitorServiceProvider {
         return NullThemeMonitorService()
     }
 
+    override fun isAffectedBy(changes: SettingsChangeSet): Boolean =
+        changes.affects(AdvancedLinuxSettings.getWithProperty(AdvancedLinuxSettings::implType).value)
+
     override fun isStillValid(impl: ThemeMonitorService?): Boolean {
-        val implType = AdvancedLinuxSettings.implType
+        val implType = AdvancedLinuxSettings.resolveImplType()
         return when {
             impl is GtkThemeMonitorService && impl.signalType == SignalType.GTK ->
                 implType == ImplementationType.GTK_XSETTINGS
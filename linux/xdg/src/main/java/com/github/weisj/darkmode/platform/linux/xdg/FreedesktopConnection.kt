@@ -21,6 +21,7 @@
 package com.github.weisj.darkmode.platform.linux.xdg
 
 import com.github.weisj.darkmode.platform.Compatibility
+import com.github.weisj.darkmode.platform.ThemeSnapshot
 import com.github.weisj.darkmode.platform.withContextClassLoader
 import org.freedesktop.dbus.connections.impl.DBusConnection
 import org.freedesktop.dbus.connections.impl.DBusConnectionBuilder
@@ -34,6 +35,11 @@ interface FreedesktopConnection {
     val theme: ThemeMode
     val compatibility: Compatibility
 
+    /**
+     * All appearance settings retrieved using a single DBus call or null if they couldn't be read.
+     */
+    val appearance: ThemeSnapshot?
+
     fun addSettingChangedHandler(sigHandler: DBusSigHandler<FreedesktopInterface.SettingChanged>)
     fun removeSettingChangedHandler(sigHandler: DBusSigHandler<FreedesktopInterface.SettingChanged>)
 
@@ -58,6 +64,7 @@ internal class NullFreedesktopConnection(private val error: String) : Freedeskto
     override val theme = ThemeMode.ERROR
     override val compatibility: Compatibility
         get() = Compatibility(false, error)
+    override val appearance: ThemeSnapshot? = null
 
     override fun addSettingChangedHandler(sigHandler: DBusSigHandler<FreedesktopInterface.SettingChanged>) {
         throw UnsupportedOperationException()
@@ -93,11 +100,28 @@ internal class DBusFreedesktopConnection(
             }.getOrElse { return ThemeMode.ERROR }
 
             return when (theme.toInt()) {
-                1 -> ThemeMode.DARK
+                FreedesktopInterface.COLOR_SCHEME_DARK -> ThemeMode.DARK
                 else -> ThemeMode.LIGHT
             }
         }
 
+    override val appearance: ThemeSnapshot?
+        get() {
+            freedesktopInterface ?: return null
+
+            val settings = freedesktopInterface.runCatching {
+                ReadAll(arrayOf(FreedesktopInterface.APPEARANCE_NAMESPACE))[FreedesktopInterface.APPEARANCE_NAMESPACE]
+            }.getOrNull() ?: return null
+
+            val colorScheme = settings[FreedesktopInterface.COLOR_SCHEME_KEY]?.let(::intVariantValue)
+            // The contrast setting isn't provided by older portal versions.
+            val contrast = settings[FreedesktopInterface.CONTRAST_KEY]?.let(::intVariantValue)
+            return ThemeSnapshot(
+                dark = colorScheme == FreedesktopInterface.COLOR_SCHEME_DARK,
+                highContrast = contrast == FreedesktopInterface.CONTRAST_HIGH
+            )
+        }
+
     override val compatibility: Compatibility
         get() {
             freedesktopInterface ?: return Compatibility(false, "FreedesktopInterface could not be created")
@@ -111,13 +135,18 @@ internal class DBusFreedesktopConnection(
 
     override fun removeSettingChangedHandler(sigHandler: DBusSigHandler<FreedesktopInterface.SettingChanged>) =
         connection.removeSigHandler(FreedesktopInterface.SettingChanged::class.java, sigHandler)
+}
 
-    /**
-     * Unpacks a Variant recursively and returns the inner value.
-     * @see Variant
-     */
-    private fun recursiveVariantValue(variant: Variant<*>): Any {
-        val value = variant.value
-        return if (value !is Variant<*>) value else recursiveVariantValue(value)
-    }
+/**
+ * Unpacks a Variant recursively and returns the inner value.
+ * @see Variant
+ */
+internal fun recursiveVariantValue(variant: Variant<*>): Any {
+    val value = variant.value
+    return if (value !is Variant<*>) value else recursiveVariantValue(value)
 }
+
+/**
+ * Unpacks a Variant holding a numeric setting such as the color scheme or contrast.
+ */
+internal fun intVariantValue(variant: Variant<*>): Int? = (recursiveVariantValue(variant) as? Number)?.toInt()
@@ -15,13 +15,20 @@ interface FreedesktopInterface : DBusInterface {
     companion object {
         const val APPEARANCE_NAMESPACE = "org.freedesktop.appearance"
         const val COLOR_SCHEME_KEY = "color-scheme"
+        const val CONTRAST_KEY = "contrast"
+        const val COLOR_SCHEME_DARK = 1
+        const val CONTRAST_HIGH = 1
     }
 
     fun Read(namespace: String, key: String): Variant<*>
 
-    class SettingChanged(objectpath: String, namespace: String, key: String, value: Variant<Any>) :
+    fun ReadAll(namespaces: Array<String>): Map<String, Map<String, Variant<*>>>
+
+    class SettingChanged(objectpath: String, namespace: String, key: String, val value: Variant<Any>) :
         DBusSignal(objectpath, namespace, key, value) {
         val colorSchemeChanged: Boolean =
             namespace == APPEARANCE_NAMESPACE && key == COLOR_SCHEME_KEY
+        val contrastChanged: Boolean =
+            namespace == APPEARANCE_NAMESPACE && key == CONTRAST_KEY
     }
 }
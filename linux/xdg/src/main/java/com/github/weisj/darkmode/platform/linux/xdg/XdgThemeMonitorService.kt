@@ -4,18 +4,38 @@ package com.github.weisj.darkmode.platform.linux.xdg
 
 import com.github.weisj.darkmode.platform.Compatibility
 import com.github.weisj.darkmode.platform.NativePointer
+import com.github.weisj.darkmode.platform.ThemeEvent
 import com.github.weisj.darkmode.platform.ThemeMonitorService
+import com.github.weisj.darkmode.platform.ThemeSnapshot
 import org.freedesktop.dbus.interfaces.DBusSigHandler
+import java.util.concurrent.atomic.AtomicReference
 
 class XdgThemeMonitorService : ThemeMonitorService {
     private val freedesktopConnection = FreedesktopConnection()
     private val sigHandler = SigHandler()
+
+    /*
+     * Written by the monitor when reading the state and by the dbus dispatch thread when a signal arrives.
+     */
+    private val lastSnapshot = AtomicReference<ThemeSnapshot?>()
     override val isDarkThemeEnabled: Boolean get() = freedesktopConnection.theme == ThemeMode.DARK
     override val compatibility: Compatibility
         get() = freedesktopConnection.compatibility
-    override val isHighContrastEnabled: Boolean = false  // No xdg preference for that available
+    override val isHighContrastEnabled: Boolean
+        get() = readSnapshot().highContrast
+
+    /*
+     * Reads the whole appearance namespace at once. If the portal doesn't support this
+     * we fall back to reading the color scheme on its own.
+     */
+    override fun readSnapshot(): ThemeSnapshot =
+        (freedesktopConnection.appearance ?: ThemeSnapshot(dark = isDarkThemeEnabled, highContrast = false))
+            .also { lastSnapshot.set(it) }
+
+    override fun createEventHandler(callback: () -> Unit): NativePointer? =
+        createThemeEventHandler { callback() }
 
-    override fun createEventHandler(callback: () -> Unit): NativePointer? {
+    override fun createThemeEventHandler(callback: (ThemeEvent) -> Unit): NativePointer? {
         check(sigHandler.eventHandler == null) { "Event handler already initialized" }
 
         freedesktopConnection.addSettingChangedHandler(sigHandler)
@@ -28,11 +48,28 @@ class XdgThemeMonitorService : ThemeMonitorService {
         sigHandler.eventHandler = null
     }
 
-    private class SigHandler : DBusSigHandler<FreedesktopInterface.SettingChanged> {
-        var eventHandler: (() -> Unit)? = null
+    /*
+     * A SettingChanged signal only carries the value of a single key. The full state can be derived
+     * from it if the other settings are known from a previous snapshot, otherwise it has to be read.
+     */
+    private fun eventFor(signal: FreedesktopInterface.SettingChanged): ThemeEvent {
+        val value = runCatching { intVariantValue(signal.value) }.getOrNull() ?: return ThemeEvent.INVALIDATED
+        // Only the changed setting is replaced, so a concurrently read snapshot isn't overwritten with stale values.
+        val snapshot = lastSnapshot.updateAndGet { previous ->
+            when {
+                previous == null -> null
+                signal.colorSchemeChanged -> previous.copy(dark = value == FreedesktopInterface.COLOR_SCHEME_DARK)
+                else -> previous.copy(highContrast = value == FreedesktopInterface.CONTRAST_HIGH)
+            }
+        } ?: return ThemeEvent.INVALIDATED
+        return ThemeEvent(snapshot)
+    }
+
+    private inner class SigHandler : DBusSigHandler<FreedesktopInterface.SettingChanged> {
+        var eventHandler: ((ThemeEvent) -> Unit)? = null
         override fun handle(signal: FreedesktopInterface.SettingChanged) {
-            if (signal.colorSchemeChanged) {
-                eventHandler?.invoke()
+            if (signal.colorSchemeChanged || signal.contrastChanged) {
+                eventHandler?.invoke(eventFor(signal))
             }
         }
     }
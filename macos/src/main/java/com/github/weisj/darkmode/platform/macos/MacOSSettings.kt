@@ -27,10 +27,13 @@ package com.github.weisj.darkmode.platform.macos
 import com.github.weisj.darkmode.platform.LibraryUtil
 import com.github.weisj.darkmode.platform.Notifications
 import com.github.weisj.darkmode.platform.OneTimeAction
+import com.github.weisj.darkmode.platform.OperatingSystem
+import com.github.weisj.darkmode.platform.RequiresOperatingSystem
 import com.github.weisj.darkmode.platform.settings.*
 import com.google.auto.service.AutoService
 
 @AutoService(SettingsContainerProvider::class)
+@RequiresOperatingSystem(OperatingSystem.MAC)
 class MacOSSettingsProvider : SingletonSettingsContainerProvider({ MacOSSettings }, enabled = LibraryUtil.isMac)
 
 object MacOSSettings : DefaultSettingsContainer(identifier = "macos_settings") {
@@ -25,8 +25,10 @@
 package com.github.weisj.darkmode
 
 import com.github.weisj.darkmode.platform.*
+import com.github.weisj.darkmode.platform.settings.SettingsChangeSet
+import com.github.weisj.darkmode.platform.settings.getWithProperty
 import com.github.weisj.darkmode.platform.settings.ifPresent
-import com.github.weisj.darkmode.platform.settings.letValue
+import com.github.weisj.darkmode.platform.settings.propertyIdentifier
 import com.intellij.ide.actions.QuickChangeLookAndFeel
 import com.intellij.ide.ui.LafManager
 import com.intellij.ide.ui.laf.UIThemeLookAndFeelInfo
@@ -37,7 +39,15 @@ import com.intellij.openapi.editor.colors.EditorColorsManager
 import com.intellij.openapi.editor.colors.EditorColorsScheme
 import com.intellij.openapi.util.registry.Registry
 import com.intellij.util.Alarm
+import com.intellij.util.concurrency.AppExecutorUtil
 import com.jetbrains.rd.util.getThrowableText
+import java.io.File
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
 
 /**
  * Automatically changes the IDEA theme based on system settings.
@@ -45,56 +55,274 @@ import com.jetbrains.rd.util.getThrowableText
 @Service
 class AutoDarkMode : Disposable, ThemeCallback {
     private val alarm = Alarm(Alarm.ThreadToUse.SWING_THREAD, this)
+    private val prewarmer = ThemePrewarmer(this)
     private val implProvider by lazy {
         ApplicationManager.getApplication().getService(ThemeMonitorServiceProvider::class.java)
     }
-    private var monitor = lazy { createMonitor() }
+    @Volatile
+    private var monitor = lazy { createMonitor(open = true) }
 
-    private fun createMonitor(): ThemeMonitor = try {
+    @Volatile
+    private var started = false
+    private val swapGeneration = AtomicInteger()
+
+    /*
+     * Guards starting and stopping the monitor, which may happen concurrently on the startup task
+     * and the EDT.
+     */
+    private val lifecycleLock = ReentrantLock()
+
+    // Guarded by lifecycleLock. Starting is set while the start task hasn't finished starting the monitor.
+    private var startTask: Future<*>? = null
+    private var starting = false
+
+    @Volatile
+    private var startupTimings: StartupTimings? = null
+
+    /*
+     * The target of the last completed switch and of the switch waiting on the alarm, if any.
+     * A notification resolving to the already applied target is skipped without touching the alarm.
+     * Both are written on the EDT, the applied target before the pending one is cleared. Hence, reading
+     * the pending target first ensures the applied target isn't outdated if nothing is pending.
+     */
+    @Volatile
+    private var appliedTarget: SwitchTarget? = null
+
+    @Volatile
+    private var pendingTarget: SwitchTarget? = null
+    private val skippedApplies = AtomicLong()
+
+    private fun createMonitor(open: Boolean): MonitorHandle {
+        val gate = GatedThemeCallback(this, open)
+        val monitor = try {
+            val service = createService()
+            LOGGER.info("Using service implementation: $service")
+            ThemeMonitorImpl(
+                service,
+                gate,
+                Registry.intValue(QUIET_WINDOW_KEY, ThemeMonitorImpl.DEFAULT_QUIET_WINDOW_MILLIS.toInt()).toLong()
+            )
+        } catch (e: IllegalStateException) {
+            LOGGER.warn("Not compatible. Monitoring is not supported." + e.getThrowableText())
+            NullMonitor()
+        }
+        return MonitorHandle(monitor, gate)
+    }
+
+    /*
+     * For stress testing the monitor can be driven by a recorded trace instead of the OS, or the
+     * notifications of the real implementation can be recorded to a file.
+     */
+    private fun createService(): ThemeMonitorService {
+        System.getProperty(REPLAY_TRACE_PROPERTY)?.let { path ->
+            val records = File(path).inputStream().use { ThemeEventTrace.read(it) }
+            val speed = System.getProperty(REPLAY_SPEED_PROPERTY)?.toDoubleOrNull() ?: 1.0
+            return ReplayThemeMonitorService(records, speed)
+        }
         val service = implProvider.create()
-        LOGGER.info("Using service implementation: $service")
-        ThemeMonitorImpl(service, this)
-    } catch (e: IllegalStateException) {
-        LOGGER.warn("Not compatible. Monitoring is not supported." + e.getThrowableText())
-        NullMonitor()
+        return System.getProperty(RECORD_TRACE_PROPERTY)?.let { path ->
+            RecordingThemeMonitorService(service, ThemeEventTrace.Writer(File(path).outputStream()))
+        } ?: service
     }
 
-    fun start() {
-        monitor.letValue { it.running = true }
+    /**
+     * Starts monitoring in the background. Creating the service may involve loading native libraries
+     * and connecting to the desktop environment, which must not delay the startup of the IDE.
+     * The first state is applied through the usual request on the EDT once it is available.
+     *
+     * Calling this while monitoring is already started or still starting returns the task of the previous call.
+     * If the monitor hasn't started within [STARTUP_TIMEOUT_SECONDS] starting is abandoned and the task
+     * is cancelled. Should the monitor still come up afterward, it is stopped right away.
+     *
+     * The monitor is started outside the lifecycle lock, as reading the initial state may block for a while.
+     * Stopping while the monitor is starting is left to the start task, which checks whether monitoring is
+     * still wanted once the monitor is running.
+     */
+    fun start(): Future<*> = lifecycleLock.withLock {
+        val wasStarted = started
+        started = true
+        startTask?.let { if (wasStarted || starting) return it }
+        starting = true
+        val timings = StartupTimings().also { startupTimings = it }
+        val task = ApplicationManager.getApplication().executeOnPooledThread {
+            var handle: MonitorHandle? = null
+            try {
+                handle = monitor.value
+                timings.mark("create monitor")
+                if (!started) return@executeOnPooledThread
+                handle.monitor.running = true
+                timings.mark("start monitor")
+                LOGGER.info("Started monitoring. $timings")
+            } finally {
+                lifecycleLock.withLock {
+                    starting = false
+                    // Stopped, timed out or swapped while starting.
+                    val isCurrent = monitor.let { it.isInitialized() && it.value === handle }
+                    if (handle != null && (!started || !isCurrent)) handle.monitor.running = false
+                }
+            }
+        }
+        AppExecutorUtil.getAppScheduledExecutorService().schedule({
+            lifecycleLock.withLock {
+                if (startTask !== task || !starting) return@schedule
+                LOGGER.warn("Monitoring hasn't started after ${STARTUP_TIMEOUT_SECONDS}s. Giving up. $timings")
+                started = false
+                startTask = null
+                task.cancel(true)
+            }
+        }, STARTUP_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        startTask = task
+        task
     }
 
     fun stop() {
-        monitor.ifPresent { it.running = false }
+        lifecycleLock.withLock {
+            started = false
+            if (!starting) {
+                startTask = null
+                monitor.ifPresent { it.monitor.running = false }
+            }
+        }
     }
 
-    fun onSettingsChange() {
-        monitor.ifPresent {
-            if (!it.isStillValid(implProvider)) {
-                LOGGER.info("Current implementation is no longer valid for settings. Swapping implementation")
+    /*
+     * Settings which only affect how a switch is performed but not its target.
+     */
+    private val switchOptions by lazy {
+        listOf(GeneralThemeSettings::prewarmOppositeTheme, GeneralThemeSettings::combinedSwitch)
+            .map { GeneralThemeSettings.getWithProperty(it).value.propertyIdentifier }
+    }
 
-                it.running = false
-                monitor = lazyOf(createMonitor())
+    fun onSettingsChange(changes: SettingsChangeSet) {
+        LOGGER.info("Settings changed: $changes")
+        val current = monitor
+        if (current.isInitialized() && implProvider.isAffectedBy(changes) &&
+            !current.value.monitor.isStillValid(implProvider)
+        ) {
+            LOGGER.info("Current implementation is no longer valid for settings. Swapping implementation")
+            if (started) {
+                swapMonitor(current.value)
+                return
             }
+            monitor = lazy { createMonitor(open = true) }
         }
 
-        monitor.letValue { it.requestUpdate() }
+        // If the monitor is still starting up it will report the state with the new settings anyway.
+        if (changes.identifiers.all { it in switchOptions }) return
+        monitor.ifPresent { it.monitor.requestUpdate() }
+    }
+
+    /*
+     * Make-before-break: The replacement is created and started in the background while the current
+     * monitor keeps running. Once the replacement has reported its first state it takes over and
+     * only then the current monitor is stopped. The gates ensure only one of them reports at a time.
+     * The first state of the replacement is always delivered, as the settings which caused the swap
+     * may also affect the target theme. Identical targets are skipped by themeChanged.
+     */
+    private fun swapMonitor(current: MonitorHandle) {
+        val generation = swapGeneration.incrementAndGet()
+        ApplicationManager.getApplication().executeOnPooledThread {
+            val replacement = createMonitor(open = false)
+            replacement.monitor.running = true
+            if (replacement.monitor !is NullMonitor &&
+                !replacement.gate.awaitFirstSnapshot(SWAP_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            ) {
+                LOGGER.warn("Replacement monitor didn't report a state in time. Swapping anyway")
+            }
+            lifecycleLock.withLock {
+                if (generation != swapGeneration.get() || !started) {
+                    // Superseded by another swap or monitoring has been stopped in the meantime.
+                    replacement.monitor.running = false
+                    return@executeOnPooledThread
+                }
+                current.gate.close()
+                monitor = lazyOf(replacement)
+                replacement.gate.open()
+                // A monitor which is still starting is stopped by the start task.
+                if (!starting) current.monitor.running = false
+            }
+            LOGGER.info("Swapped monitor implementation")
+        }
     }
 
     override fun themeChanged(isDark: Boolean, isHighContrast: Boolean) {
         val (lafTarget, colorSchemeTarget) = getTargetLaf(isDark, isHighContrast)
+        val target = SwitchTarget(
+            lafId = lafTarget.id.takeIf { GeneralThemeSettings.changeIdeTheme },
+            schemeName = colorSchemeTarget.name.takeIf { GeneralThemeSettings.changeEditorTheme },
+            dark = isDark,
+            highContrast = isHighContrast
+        )
+        val pending = pendingTarget
+        if (pending == target || (pending == null && appliedTarget == target)) {
+            skipApply(target)
+            return
+        }
+        pendingTarget = target
         resetRequests()
         scheduleRequest {
-            if (GeneralThemeSettings.changeIdeTheme &&
-                lafTarget != LafManager.getInstance().currentUIThemeLookAndFeel
-            ) {
-                updateLaf(lafTarget)
+            // The theme may have been changed manually since the last switch.
+            if (isAlreadyApplied(target)) {
+                if (pendingTarget == target) pendingTarget = null
+                skipApply(target)
+                return@scheduleRequest
             }
-            if (GeneralThemeSettings.changeEditorTheme &&
-                colorSchemeTarget != EditorColorsManager.getInstance().globalScheme
-            ) {
-                updateEditorScheme(colorSchemeTarget)
+            val laf = lafTarget.takeIf {
+                GeneralThemeSettings.changeIdeTheme && it != LafManager.getInstance().currentUIThemeLookAndFeel
             }
+            val scheme = colorSchemeTarget.takeIf {
+                GeneralThemeSettings.changeEditorTheme && it != EditorColorsManager.getInstance().globalScheme
+            }
+            if (laf != null && scheme != null && GeneralThemeSettings.combinedSwitch) {
+                updateLafAndEditorScheme(laf, scheme)
+            } else {
+                laf?.let {
+                    ThemeSwitchMetrics.measureBlocking(SwitchPhase.LAF_APPLIED) { updateLaf(it) }
+                    ThemeSwitchMetrics.record(SwitchPhase.LAF_APPLIED)
+                }
+                scheme?.let {
+                    ThemeSwitchMetrics.measureBlocking(SwitchPhase.SCHEME_APPLIED) { updateEditorScheme(it) }
+                    ThemeSwitchMetrics.record(SwitchPhase.SCHEME_APPLIED)
+                }
+            }
+            ThemeSwitchMetrics.completeTrace()
+            appliedTarget = target
+            if (pendingTarget == target) pendingTarget = null
+            prewarmOppositeTheme(isDark, isHighContrast)
+        }
+        ThemeSwitchMetrics.record(SwitchPhase.REQUEST_SCHEDULED)
+    }
+
+    private fun skipApply(target: SwitchTarget) {
+        skippedApplies.incrementAndGet()
+        ThemeSwitchMetrics.abandonTrace()
+        LOGGER.info("Skipping switch to $target. It is already applied.")
+    }
+
+    /*
+     * The theme may have been changed manually since the last switch. Comparing against the
+     * current theme and scheme only involves reading their current values, but has to happen on the EDT.
+     */
+    private fun isAlreadyApplied(target: SwitchTarget): Boolean =
+        target == appliedTarget &&
+            (target.lafId == null || target.lafId == LafManager.getInstance().currentUIThemeLookAndFeel?.id) &&
+            (target.schemeName == null || target.schemeName == EditorColorsManager.getInstance().globalScheme.name)
+
+    /*
+     * Switches usually toggle between the light and dark targets. The high contrast theme
+     * is left in favour of the regular theme with the same brightness.
+     */
+    private fun prewarmOppositeTheme(isDark: Boolean, isHighContrast: Boolean) {
+        if (!GeneralThemeSettings.prewarmOppositeTheme) {
+            prewarmer.cancel()
+            return
         }
+        val oppositeDark = if (isHighContrast && GeneralThemeSettings.checkHighContrast) isDark else !isDark
+        val (lafTarget, colorSchemeTarget) = getTargetLaf(oppositeDark, false)
+        prewarmer.schedule(
+            lafTarget.takeIf { GeneralThemeSettings.changeIdeTheme },
+            colorSchemeTarget.takeIf { GeneralThemeSettings.changeEditorTheme }
+        )
     }
 
     private fun getTargetLaf(dark: Boolean, highContrast: Boolean): Pair<UIThemeLookAndFeelInfo, EditorColorsScheme> {
@@ -115,6 +343,27 @@ class AutoDarkMode : Disposable, ThemeCallback {
         EditorColorsManager.getInstance().setGlobalScheme(colorsScheme)
     }
 
+    /*
+     * Switching the LAF updates the whole component tree and applies the editor scheme associated with
+     * the theme. Setting the configured scheme afterward then causes a second repaint and re-highlight of
+     * all editors. Instead the editor scheme is locked while changing the LAF and the component tree
+     * is only updated once both have been applied.
+     */
+    private fun updateLafAndEditorScheme(targetLaf: UIThemeLookAndFeelInfo, colorsScheme: EditorColorsScheme) {
+        val lafManager = LafManager.getInstance()
+        ThemeSwitchMetrics.measureBlocking(SwitchPhase.LAF_APPLIED) {
+            lafManager.setCurrentLookAndFeel(targetLaf, true)
+        }
+        ThemeSwitchMetrics.record(SwitchPhase.LAF_APPLIED)
+        ThemeSwitchMetrics.measureBlocking(SwitchPhase.SCHEME_APPLIED) { updateEditorScheme(colorsScheme) }
+        ThemeSwitchMetrics.record(SwitchPhase.SCHEME_APPLIED)
+        ThemeSwitchMetrics.measureBlocking(SwitchPhase.UI_UPDATED) {
+            lafManager.updateUI()
+            lafManager.repaintUI()
+        }
+        ThemeSwitchMetrics.record(SwitchPhase.UI_UPDATED)
+    }
+
     private fun resetRequests() {
         alarm.cancelAllRequests()
     }
@@ -123,6 +372,22 @@ class AutoDarkMode : Disposable, ThemeCallback {
         alarm.addRequest(runnable, Registry.intValue(INSTANT_DELAY_KEY, 0))
     }
 
+    /**
+     * Summary of the switch latencies and the notification statistics of the current monitor.
+     */
+    fun diagnostics(): String = buildString {
+        append(ThemeSwitchMetrics.dump())
+        monitor.ifPresent { handle ->
+            (handle.monitor as? ThemeMonitorImpl)?.let {
+                appendLine(it.notificationStatistics)
+                appendLine(it.executorStatistics)
+                appendLine("Stale updates: ${it.staleUpdateCount}")
+            }
+        }
+        appendLine("Skipped applies: ${skippedApplies.get()}")
+        startupTimings?.let { appendLine("Startup: $it") }
+    }
+
     override fun dispose() {
         stop()
     }
@@ -135,8 +400,23 @@ class AutoDarkMode : Disposable, ThemeCallback {
         start()
     }
 
+    private data class MonitorHandle(val monitor: ThemeMonitor, val gate: GatedThemeCallback)
+
+    private data class SwitchTarget(
+        val lafId: String?,
+        val schemeName: String?,
+        val dark: Boolean,
+        val highContrast: Boolean
+    )
+
     companion object {
         private const val INSTANT_DELAY_KEY = "ide.instant.theme.switch.delay"
+        private const val SWAP_TIMEOUT_SECONDS = 10L
+        private const val STARTUP_TIMEOUT_SECONDS = 10L
+        private const val QUIET_WINDOW_KEY = "auto.dark.mode.notification.quiet.window"
+        private const val REPLAY_TRACE_PROPERTY = "auto.dark.mode.replay.trace"
+        private const val REPLAY_SPEED_PROPERTY = "auto.dark.mode.replay.speed"
+        private const val RECORD_TRACE_PROPERTY = "auto.dark.mode.record.trace"
         private val LOGGER = PluginLogger<AutoDarkMode>()
         private val OPTIONS = ApplicationManager.getApplication().getService(AutoDarkModeOptions::class.java)
 
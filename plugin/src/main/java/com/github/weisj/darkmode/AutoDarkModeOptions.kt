@@ -26,10 +26,11 @@ package com.github.weisj.darkmode
 
 import com.github.weisj.darkmode.platform.ServiceUtil
 import com.github.weisj.darkmode.platform.settings.*
-import com.intellij.openapi.components.PersistentStateComponent
+import com.intellij.openapi.components.PersistentStateComponentWithModificationTracker
 import com.intellij.openapi.components.RoamingType
 import com.intellij.openapi.components.State
 import com.intellij.openapi.components.Storage
+import com.intellij.openapi.util.SimpleModificationTracker
 
 /**
  * The storage for plugin options.
@@ -37,7 +38,7 @@ import com.intellij.openapi.components.Storage
  * Settings can be declared by registering a {@link SettingsContainerProvider} service.
  */
 @State(name = "AutoDarkMode", storages = [Storage("autoDarkMode.xml", roamingType = RoamingType.PER_OS)])
-class AutoDarkModeOptions : PersistentStateComponent<SettingsState> {
+class AutoDarkModeOptions : PersistentStateComponentWithModificationTracker<SettingsState> {
 
     companion object {
         private const val ROOT_GROUP_NAME = "__root__group__"
@@ -64,36 +65,57 @@ class AutoDarkModeOptions : PersistentStateComponent<SettingsState> {
 
     private var storageSettingsVersion: Double = SETTINGS_VERSION
     var containers: List<SettingsContainer> = listOf()
+    private var providers: Map<SettingsContainer, SettingsContainerProvider> = mapOf()
+
+    /**
+     * The containers which can be shown in the settings. Determining this may load native libraries,
+     * hence it is only done on first access.
+     */
+    val availableContainers: List<SettingsContainer> by lazy {
+        containers.filter { providers[it]?.isAvailable() ?: true }
+    }
     private val properties: MutableMap<PropertyIdentifier, PersistentValueProperty<Any>> by lazy {
         initState(containers, mutableMapOf())
     }
     private var stateAfterLoad: SettingsState? = null
     private var loadState = LoadState.INVALID
+        set(value) {
+            field = value
+            invalidateState()
+        }
+
+    /*
+     * Writes of persistent properties are tracked through write listeners, which don't compute lazy
+     * defaults. Backing fields which are assigned directly need to call markModified.
+     */
+    private val modificationTracker = SimpleModificationTracker()
+    private var cachedState: SettingsState? = null
+    private var cachedStateCount = -1L
 
     private fun initContainers(state: SettingsState) {
-        containers = ServiceUtil.load(SettingsContainerProvider::class.java)
+        providers = ServiceUtil.loadSupported(SettingsContainerProvider::class.java)
             .asSequence()
             .filter { it.isEnabled(state) }
-            .map { it.create() }
-            .onEach { it.init() }
-            .toList()
+            .associateBy { it.create() }
+            .onEach { (container, _) -> container.init() }
+        containers = providers.keys.toList()
     }
 
     private fun initState(
         cont: List<SettingsContainer>,
         props: MutableMap<PropertyIdentifier, PersistentValueProperty<Any>>
     ): MutableMap<PropertyIdentifier, PersistentValueProperty<Any>> {
-        cont.flatMap { it.allProperties() }
-            .mapNotNull { it.asPersistent() }
-            .forEach {
-                val identifier = it.propertyIdentifier
+        cont.forEach { container ->
+            container.registry.persistentProperties.forEach { (identifier, prop) ->
                 props[identifier]?.let { other ->
                     throw IllegalStateException(
-                        "$it clashes with $other. Property with identifier $identifier already defined."
+                        "$prop clashes with $other. Property with identifier $identifier already defined."
                     )
                 }
-                props[it.propertyIdentifier] = it
+                props[identifier] = prop
+                prop.registerBackingWriteListener { modificationTracker.incModificationCount() }
             }
+        }
         return props
     }
 
@@ -114,11 +136,34 @@ class AutoDarkModeOptions : PersistentStateComponent<SettingsState> {
         return (props + versionEntry)
     }
 
+    private fun invalidateState() {
+        modificationTracker.incModificationCount()
+    }
+
+    /**
+     * Marks the persistent state as modified, such that it is saved again.
+     */
+    fun markModified() {
+        invalidateState()
+    }
+
+    override fun getStateModificationCount(): Long = modificationTracker.modificationCount
+
+    /*
+     * The loaded state is only rebuilt if the modification count changed since it was last built. The
+     * platform only serializes the returned state, hence the same instance can be returned every time.
+     */
     override fun getState(): SettingsState {
-        val state = SettingsState(computeStateEntries())
-        if (loadState == LoadState.STATE_AFTER_LOAD) {
-            loadState = LoadState.LOADED
+        if (loadState == LoadState.LOADED) {
+            val count = modificationTracker.modificationCount
+            cachedState?.let { if (cachedStateCount == count) return it }
+            return SettingsState(computeStateEntries()).also {
+                cachedState = it
+                cachedStateCount = count
+            }
         }
+        val state = SettingsState(computeStateEntries())
+        if (loadState == LoadState.STATE_AFTER_LOAD) loadState = LoadState.LOADED
         return state
     }
 
@@ -133,6 +178,12 @@ class AutoDarkModeOptions : PersistentStateComponent<SettingsState> {
         }?.value?.toDouble() ?: SETTINGS_VERSION
 
         val keepUnused = storageSettingsVersion >= SETTINGS_VERSION
+        // Conditions and previews only need to see the final state.
+        transaction { loadEntries(toLoad, keepUnused) }
+        invalidateState()
+    }
+
+    private fun loadEntries(toLoad: SettingsState, keepUnused: Boolean) {
         toLoad.entries.forEach {
             val identifier = PropertyIdentifier(it.groupIdentifier, it.name)
             if (keepUnused) {
@@ -145,21 +196,26 @@ class AutoDarkModeOptions : PersistentStateComponent<SettingsState> {
         }
     }
 
+    /**
+     * The current values of all persistent properties. Used to compute the changes made by applying settings.
+     */
+    fun persistentValues(): Map<PropertyIdentifier, String> = properties.mapValues { (_, prop) -> prop.value }
+
+    fun changesSince(before: Map<PropertyIdentifier, String>): SettingsChangeSet =
+        SettingsChangeSet.between(before, persistentValues())
+
     fun settingsLoaded() {
         containers.forEach { it.onSettingsLoaded() }
+        // Containers may assign backing fields directly when the settings are loaded.
+        invalidateState()
     }
 
-    data class PropertyIdentifier(val groupIdentifier: String, val name: String)
-
-    private val <T> ValueProperty<T>.propertyIdentifier
-        get() = PropertyIdentifier(group.getIdentifierPath(), name)
-
     private class PersistentValuePropertyStub(
         override val name: String,
         override var value: String,
         groupIdentifier: String
     ) : PersistentValueProperty<Any>, Observable<ValueProperty<String>> by DefaultObservable() {
-        override val group: SettingsGroup = DefaultSettingsGroup(null, groupIdentifier)
+        override val group: SettingsGroup by lazy { DefaultSettingsGroup(null, groupIdentifier) }
         override val backingProperty: ValueProperty<Any>
             get() = throw IllegalStateException("Not supported")
         override var activeCondition = conditionOf(true)
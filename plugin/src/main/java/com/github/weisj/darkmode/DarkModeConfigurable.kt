@@ -33,10 +33,13 @@ import com.github.weisj.darkmode.platform.settings.castSafelyTo
 import com.github.weisj.darkmode.platform.settings.effective
 import com.github.weisj.darkmode.platform.settings.isTotallyEmpty
 import com.github.weisj.darkmode.platform.settings.registerListener
+import com.github.weisj.darkmode.platform.settings.transaction
 import com.github.weisj.darkmode.platform.settings.withType
+import com.intellij.openapi.Disposable
 import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.options.BoundConfigurable
 import com.intellij.openapi.ui.DialogPanel
+import com.intellij.openapi.util.Disposer
 import com.intellij.ui.CollectionComboBoxModel
 import com.intellij.ui.PopupMenuListenerAdapter
 import com.intellij.ui.SimpleListCellRenderer
@@ -56,37 +59,48 @@ import javax.swing.event.PopupMenuEvent
 
 class DarkModeConfigurable : BoundConfigurable(SETTINGS_TITLE) {
 
+    /*
+     * Parent of all listeners the panel registers on the settings. They capture the components of the
+     * panel and hence have to be removed once it is closed.
+     */
+    private var panelDisposable: Disposable? = null
+
     override fun createPanel(): DialogPanel {
         val options = ApplicationManager.getApplication().getService(AutoDarkModeOptions::class.java)
+        ThemeIndex.invalidate()
+        panelDisposable?.let { Disposer.dispose(it) }
+        val disposable = Disposer.newDisposable("AutoDarkModeSettingsPanel").also { panelDisposable = it }
 
         return panel {
-            options.containers.forEach { container ->
-                container.subgroups.forEach { addGroup(it) }
-                addGroup(container.unnamedGroup, UNNAMED_GROUP_TITLE)
+            options.availableContainers.forEach { container ->
+                container.subgroups.forEach { addGroup(it, disposable) }
+                addGroup(container.unnamedGroup, UNNAMED_GROUP_TITLE, disposable)
             }
         }
     }
 
-    private fun Panel.addGroup(group: NamedSettingsGroup) = addGroup(group, group.name)
+    private fun Panel.addGroup(group: NamedSettingsGroup, disposable: Disposable) =
+        addGroup(group, group.name, disposable)
 
     private fun Panel.addGroup(
         properties: SettingsGroup,
-        name: String?
+        name: String?,
+        disposable: Disposable
     ) {
         if (properties.isTotallyEmpty()) return
         maybeTitledRow(name) {
-            properties.forEach { addProperty(it) }
+            properties.forEach { addProperty(it, disposable) }
             properties.subgroups.forEach { group ->
                 if (group.name.isEmpty()) {
-                    group.forEach { addProperty(it) }
+                    group.forEach { addProperty(it, disposable) }
                 } else {
-                    addGroup(group)
+                    addGroup(group, disposable)
                 }
             }
         }
     }
 
-    private fun Panel.addProperty(valueProp: ValueProperty<Any>) {
+    private fun Panel.addProperty(valueProp: ValueProperty<Any>, disposable: Disposable) {
         val choiceProperty = valueProp.castSafelyTo<ChoiceProperty<Any, Any>>()
         val effectiveProp = valueProp.effective<Any>()
         val prop = effectiveProp.value
@@ -121,7 +135,7 @@ class DarkModeConfigurable : BoundConfigurable(SETTINGS_TITLE) {
                         }
                 else -> throw IllegalArgumentException("Not yet implemented!")
             }
-            enableIf(effectiveProp.activeCondition)
+            enableIf(effectiveProp.activeCondition, disposable)
         }
     }
 
@@ -148,8 +162,8 @@ class DarkModeConfigurable : BoundConfigurable(SETTINGS_TITLE) {
         }
     }
 
-    private fun Row.enableIf(condition: Condition) {
-        enabledIf(ConditionComponentPredicate(condition))
+    private fun Row.enableIf(condition: Condition, disposable: Disposable) {
+        enabledIf(ConditionComponentPredicate(condition, disposable))
     }
 
     private fun Panel.maybeTitledRow(name: String?, init: Panel.() -> Unit): RowsRange {
@@ -164,9 +178,19 @@ class DarkModeConfigurable : BoundConfigurable(SETTINGS_TITLE) {
         if (!name.isNullOrEmpty()) row(name, init = init) else row { init() }
     }
 
+    override fun disposeUIResources() {
+        super.disposeUIResources()
+        panelDisposable?.let { Disposer.dispose(it) }
+        panelDisposable = null
+    }
+
     override fun apply() {
-        super.apply()
-        ApplicationManager.getApplication().getService(AutoDarkMode::class.java).onSettingsChange()
+        val options = ApplicationManager.getApplication().getService(AutoDarkModeOptions::class.java)
+        val before = options.persistentValues()
+        transaction { super.apply() }
+        val changes = options.changesSince(before)
+        if (changes.isEmpty()) return
+        ApplicationManager.getApplication().getService(AutoDarkMode::class.java).onSettingsChange(changes)
     }
 
     companion object {
@@ -184,9 +208,12 @@ internal class DocumentChangeListener(val onChange: () -> Unit) : DocumentListen
     override fun changedUpdate(e: DocumentEvent?) = onChange()
 }
 
-internal class ConditionComponentPredicate(private val condition: Condition) : ComponentPredicate() {
+internal class ConditionComponentPredicate(
+    private val condition: Condition,
+    private val parentDisposable: Disposable
+) : ComponentPredicate() {
     override fun addListener(listener: (Boolean) -> Unit) {
-        condition.registerListener(Condition::value) { _, new -> listener(new) }
+        condition.registerListener(Condition::value, parentDisposable) { _, new -> listener(new) }
     }
 
     override fun invoke() = condition()
@@ -33,7 +33,6 @@ import com.intellij.ide.ui.laf.UIThemeExportableBean
 import com.intellij.ide.ui.laf.UIThemeLookAndFeelInfo
 import com.intellij.openapi.editor.colors.EditorColorsManager
 import com.intellij.openapi.editor.colors.EditorColorsScheme
-import com.intellij.openapi.options.Scheme
 import com.intellij.ui.ExperimentalUI
 import javax.swing.UIDefaults
 
@@ -72,18 +71,26 @@ object GeneralThemeSettings : DefaultSettingsContainer(identifier = "general_set
     private const val DEFAULT_CHANGE_IDE_THEME = true
     private const val DEFAULT_CHANGE_EDITOR_THEME = true
     private const val DEFAULT_CHECK_HIGH_CONTRAST = true
+    private const val DEFAULT_PREWARM_OPPOSITE_THEME = false
+    private const val DEFAULT_COMBINED_SWITCH = false
 
-    var darkTheme = DefaultLaf.DARK.info()
-    var lightTheme = DefaultLaf.LIGHT.info()
-    var highContrastTheme = DefaultLaf.HIGH_CONTRAST.info()
+    /*
+     * The defaults are only resolved if there is no persisted value, as resolving them requires
+     * the LafManager and EditorColorsManager.
+     */
+    var darkTheme by lazyDefault(DefaultLaf.DARK.info)
+    var lightTheme by lazyDefault(DefaultLaf.LIGHT.info)
+    var highContrastTheme by lazyDefault(DefaultLaf.HIGH_CONTRAST.info)
 
-    var lightCodeScheme = DefaultScheme.LIGHT.scheme()
-    var darkCodeScheme = DefaultScheme.DARK.scheme()
-    var highContrastCodeScheme = DefaultScheme.HIGH_CONTRAST.scheme()
+    var lightCodeScheme by lazyDefault(DefaultScheme.LIGHT.scheme)
+    var darkCodeScheme by lazyDefault(DefaultScheme.DARK.scheme)
+    var highContrastCodeScheme by lazyDefault(DefaultScheme.HIGH_CONTRAST.scheme)
 
     var changeIdeTheme = DEFAULT_CHANGE_IDE_THEME
     var changeEditorTheme = DEFAULT_CHANGE_EDITOR_THEME
     var checkHighContrast = DEFAULT_CHECK_HIGH_CONTRAST
+    var prewarmOppositeTheme = DEFAULT_PREWARM_OPPOSITE_THEME
+    var combinedSwitch = DEFAULT_COMBINED_SWITCH
 
     init {
         group("IDE Theme") {
@@ -166,6 +173,14 @@ object GeneralThemeSettings : DefaultSettingsContainer(identifier = "general_set
                 description = "Check for high contrast",
                 value = ::checkHighContrast
             )
+            persistentBooleanProperty(
+                description = "Prepare opposite theme in background",
+                value = ::prewarmOppositeTheme
+            )
+            persistentBooleanProperty(
+                description = "Update IDE theme and editor scheme at once",
+                value = ::combinedSwitch
+            )
         }
     }
 
@@ -184,8 +199,7 @@ object GeneralThemeSettings : DefaultSettingsContainer(identifier = "general_set
             ?: (namePart?.let { searchLaf(it) })
     }
 
-    private fun parseScheme(name: String?): EditorColorsScheme? =
-        EditorColorsManager.getInstance().allSchemes.firstOrNull { it.name == name }
+    private fun parseScheme(name: String?): EditorColorsScheme? = name?.let { ThemeIndex.findScheme(it) }
 
     /**
      * Search for a given editor scheme.
@@ -196,12 +210,8 @@ object GeneralThemeSettings : DefaultSettingsContainer(identifier = "general_set
      * Uses the current scheme as a fallback.
      */
     private fun searchScheme(vararg names: String): EditorColorsScheme {
-        return EditorColorsManager.getInstance().run {
-            names.firstNotNullOfOrNull { name ->
-                allSchemes.firstOrNull { it.name == name }
-                    ?: allSchemes.firstOrNull { it.name == "${Scheme.EDITABLE_COPY_PREFIX}$name" }
-            } ?: globalScheme
-        }
+        return names.firstNotNullOfOrNull { ThemeIndex.findSchemeOrEditableCopy(it) }
+            ?: EditorColorsManager.getInstance().globalScheme
     }
 
     enum class LafFallback {
@@ -226,21 +236,15 @@ object GeneralThemeSettings : DefaultSettingsContainer(identifier = "general_set
 
     /**
      * Search for a given LookAndFeelInfo.
-     * The name has to match. If the className isn't empty it also has to match.
+     * Either the id or the name has to match.
      */
     private fun searchLafImpl(vararg ids: String): UIThemeLookAndFeelInfo? {
-        val manager = LafManager.getInstance() ?: return null
-        return manager.run {
-            val experimental = ExperimentalUI.isNewUI()
-            ids.firstNotNullOfOrNull { id ->
-                if (!experimental && id.startsWith("Experimental")) {
-                    return@firstNotNullOfOrNull null
-                }
-                // Match by id first; if not found, also allow matching by display name.
-                return@firstNotNullOfOrNull installedThemes.firstOrNull {
-                    it.id.equals(id, ignoreCase = true) || it.name.equals(id, ignoreCase = true)
-                }
+        val experimental = ExperimentalUI.isNewUI()
+        return ids.firstNotNullOfOrNull { id ->
+            if (!experimental && id.startsWith("Experimental")) {
+                return@firstNotNullOfOrNull null
             }
+            ThemeIndex.findLaf(id)
         }
     }
 }
@@ -0,0 +1,106 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode
+
+import com.intellij.ide.plugins.DynamicPluginListener
+import com.intellij.ide.plugins.IdeaPluginDescriptor
+import com.intellij.ide.ui.LafManager
+import com.intellij.ide.ui.laf.UIThemeLookAndFeelInfo
+import com.intellij.openapi.editor.colors.EditorColorsManager
+import com.intellij.openapi.editor.colors.EditorColorsManagerListener
+import com.intellij.openapi.editor.colors.EditorColorsScheme
+import com.intellij.openapi.options.Scheme
+import java.util.Locale
+
+/**
+ * Index of the installed look and feels and editor schemes.
+ *
+ * The index is built on first access and invalidated by [ThemeIndexInvalidator] whenever
+ * themes or schemes may have been added or removed. Switching the theme or scheme leaves the index
+ * intact. Creating a scheme doesn't cause a notification, hence the index is also invalidated when
+ * the settings are opened, as they offer all current schemes.
+ */
+internal object ThemeIndex {
+
+    private class Index(
+        val lafs: Map<String, UIThemeLookAndFeelInfo>,
+        val schemes: Map<String, EditorColorsScheme>
+    )
+
+    @Volatile
+    private var index: Index? = null
+
+    /**
+     * Finds the look and feel whose id or name matches ignoring case. If multiple themes match
+     * the first installed one is returned.
+     */
+    fun findLaf(idOrName: String): UIThemeLookAndFeelInfo? = lookup { it.lafs[idOrName.lowercase(Locale.ROOT)] }
+
+    /**
+     * Finds the editor scheme with the given name.
+     */
+    fun findScheme(name: String): EditorColorsScheme? = lookup { it.schemes[name] }
+
+    /**
+     * Finds the editor scheme with the given name or its editable copy.
+     */
+    fun findSchemeOrEditableCopy(name: String): EditorColorsScheme? =
+        lookup { it.schemes[name] ?: it.schemes["${Scheme.EDITABLE_COPY_PREFIX}$name"] }
+
+    fun invalidate() {
+        index = null
+    }
+
+    private inline fun <T : Any> lookup(find: (Index) -> T?): T? = find(index ?: rebuild())
+
+    private fun rebuild(): Index {
+        val lafs = mutableMapOf<String, UIThemeLookAndFeelInfo>()
+        LafManager.getInstance()?.installedThemes?.forEach {
+            lafs.putIfAbsent(it.id.lowercase(Locale.ROOT), it)
+            lafs.putIfAbsent(it.name.lowercase(Locale.ROOT), it)
+        }
+        val schemes = mutableMapOf<String, EditorColorsScheme>()
+        EditorColorsManager.getInstance()?.allSchemes?.forEach { schemes.putIfAbsent(it.name, it) }
+        return Index(lafs, schemes).also { index = it }
+    }
+}
+
+/**
+ * Themes are only added or removed with the plugins providing them. Schemes are additionally
+ * reloaded when they are imported or deleted.
+ */
+class ThemeIndexInvalidator : DynamicPluginListener, EditorColorsManagerListener {
+    override fun pluginLoaded(pluginDescriptor: IdeaPluginDescriptor) {
+        ThemeIndex.invalidate()
+    }
+
+    override fun pluginUnloaded(pluginDescriptor: IdeaPluginDescriptor, isUpdate: Boolean) {
+        ThemeIndex.invalidate()
+    }
+
+    override fun schemesReloaded() {
+        ThemeIndex.invalidate()
+    }
+}
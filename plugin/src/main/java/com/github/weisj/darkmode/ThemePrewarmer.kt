@@ -0,0 +1,144 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2020 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode
+
+import com.github.weisj.darkmode.platform.PluginLogger
+import com.intellij.ide.IdeEventQueue
+import com.intellij.ide.ui.laf.UIThemeLookAndFeelInfo
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.application.ModalityState
+import com.intellij.openapi.editor.colors.EditorColorsScheme
+import com.intellij.openapi.editor.colors.EditorFontType
+import com.intellij.openapi.editor.colors.TextAttributesKey
+import com.intellij.openapi.util.Disposer
+import java.util.concurrent.TimeUnit
+
+/**
+ * Prepares the theme which would be switched to next while the IDE is idle. Loading the theme data and the
+ * attributes of the editor scheme is then already done when the switch happens, which leaves only the
+ * update of the UI for the switch itself.
+ *
+ * The schemes aren't thread-safe, hence all work is done on the EDT. It is split into small chunks, such that
+ * pending input events are never delayed noticeably. All state is confined to the EDT.
+ *
+ * Installing the theme into the UIDefaults isn't done ahead of time, as it has global side effects
+ * e.g. on the icon patchers and the background image.
+ */
+internal class ThemePrewarmer(parentDisposable: Disposable) : Disposable {
+    private var task: PrewarmTask? = null
+    private var prepared: Pair<String?, String?>? = null
+
+    init {
+        Disposer.register(parentDisposable, this)
+    }
+
+    /**
+     * Prepares the given targets once the IDE has been idle for a while.
+     * Passing null skips the respective target.
+     */
+    fun schedule(laf: UIThemeLookAndFeelInfo?, scheme: EditorColorsScheme?) {
+        ApplicationManager.getApplication().assertIsDispatchThread()
+        cancel()
+        if (laf?.id to scheme?.name == prepared) return
+        task = PrewarmTask(laf, scheme).also {
+            IdeEventQueue.getInstance().addIdleListener(it, IDLE_TIMEOUT_MILLIS)
+        }
+    }
+
+    fun cancel() {
+        task?.let {
+            it.cancelled = true
+            IdeEventQueue.getInstance().removeIdleListener(it)
+        }
+        task = null
+    }
+
+    override fun dispose() {
+        cancel()
+    }
+
+    private inner class PrewarmTask(
+        private val laf: UIThemeLookAndFeelInfo?,
+        private val scheme: EditorColorsScheme?
+    ) : Runnable {
+        var cancelled = false
+        private var started = false
+        private var elapsedNanos = 0L
+        private val steps: Iterator<() -> Unit> = sequence<() -> Unit> {
+            // Resolves the theme data without installing it.
+            laf?.let { yield { it.describe() } }
+            if (scheme != null) {
+                // Bundled schemes are only read once their attributes are accessed.
+                TextAttributesKey.getAllKeys().forEach { key -> yield { scheme.getAttributes(key) } }
+                EditorFontType.values().forEach { type -> yield { scheme.getFont(type) } }
+            }
+        }.iterator()
+
+        /*
+         * Invoked by the idle listener. Once started the remaining chunks are scheduled directly,
+         * as the listener would only fire again after the next idle period.
+         */
+        override fun run() {
+            if (cancelled || started) return
+            started = true
+            IdeEventQueue.getInstance().removeIdleListener(this)
+            runChunk()
+        }
+
+        private fun runChunk() {
+            if (cancelled) return
+            val start = System.nanoTime()
+            try {
+                while (steps.hasNext() && System.nanoTime() - start < CHUNK_BUDGET_NANOS) {
+                    steps.next()()
+                }
+            } catch (e: RuntimeException) {
+                LOGGER.warn("Failed to prepare ${laf?.name} / ${scheme?.name}", e)
+                finish()
+                return
+            }
+            elapsedNanos += System.nanoTime() - start
+            if (steps.hasNext()) {
+                ApplicationManager.getApplication().invokeLater(::runChunk, ModalityState.nonModal())
+            } else {
+                prepared = laf?.id to scheme?.name
+                finish()
+                val elapsed = TimeUnit.NANOSECONDS.toMillis(elapsedNanos)
+                LOGGER.info("Prepared ${laf?.name} / ${scheme?.name} in ${elapsed}ms")
+            }
+        }
+
+        private fun finish() {
+            if (task === this) task = null
+        }
+    }
+
+    companion object {
+        private const val IDLE_TIMEOUT_MILLIS = 5000
+        private val CHUNK_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(5)
+        private val LOGGER = PluginLogger<ThemePrewarmer>()
+    }
+}
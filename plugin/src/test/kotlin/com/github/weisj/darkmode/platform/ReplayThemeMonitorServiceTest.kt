@@ -0,0 +1,77 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.platform
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class ReplayThemeMonitorServiceTest {
+
+    @Test
+    fun testTraceRoundTrip() {
+        val records = listOf(
+            TraceRecord(0, TraceRecord.Kind.STATE, ThemeSnapshot(dark = false)),
+            TraceRecord(TimeUnit.MILLISECONDS.toNanos(5), TraceRecord.Kind.EVENT, null),
+            TraceRecord(TimeUnit.SECONDS.toNanos(3), TraceRecord.Kind.EVENT, ThemeSnapshot(true, true)),
+            TraceRecord(TimeUnit.SECONDS.toNanos(3), TraceRecord.Kind.STATE, ThemeSnapshot(dark = true))
+        )
+        val bytes = ByteArrayOutputStream().also { ThemeEventTrace.write(it, records) }.toByteArray()
+
+        assertEquals(records, ThemeEventTrace.read(ByteArrayInputStream(bytes)))
+    }
+
+    @Test
+    fun testEventStormIsCoalesced() {
+        val storm = List(STORM_SIZE) { TraceRecord(it * 1000L, TraceRecord.Kind.EVENT, null) } +
+            TraceRecord(STORM_SIZE * 1000L, TraceRecord.Kind.STATE, ThemeSnapshot(dark = true))
+        val service = ReplayThemeMonitorService(storm, Double.POSITIVE_INFINITY, ThemeSnapshot(dark = false))
+        val reportedDark = CountDownLatch(1)
+        val monitor = ThemeMonitorImpl(service, object : ThemeCallback {
+            override fun themeChanged(isDark: Boolean, isHighContrast: Boolean) {
+                if (isDark) reportedDark.countDown()
+            }
+        })
+        monitor.running = true
+
+        assertTrue(service.awaitCompletion(5, TimeUnit.SECONDS))
+        assertTrue(reportedDark.await(5, TimeUnit.SECONDS))
+        monitor.running = false
+
+        assertEquals(STORM_SIZE.toLong(), service.replayed)
+        monitor.notificationStatistics.let {
+            assertEquals(STORM_SIZE.toLong(), it.received)
+            assertTrue(it.fetched < STORM_SIZE / 10)
+        }
+    }
+
+    companion object {
+        private const val STORM_SIZE = 5000
+    }
+}
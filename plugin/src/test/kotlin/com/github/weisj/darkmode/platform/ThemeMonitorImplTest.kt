@@ -0,0 +1,162 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.platform
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class ThemeMonitorImplTest {
+
+    private class FakeThemeMonitorService : ThemeMonitorService {
+        val reads = AtomicInteger()
+        var callback: (() -> Unit)? = null
+
+        @Volatile
+        var dark = false
+
+        override val isDarkThemeEnabled: Boolean
+            get() {
+                reads.incrementAndGet()
+                return dark
+            }
+        override val isHighContrastEnabled: Boolean = false
+        override val compatibility: Compatibility = Compatibility(true, "")
+
+        override fun createEventHandler(callback: () -> Unit): NativePointer? {
+            this.callback = callback
+            return NativePointer(1L)
+        }
+
+        override fun deleteEventHandler(eventHandle: NativePointer) {
+            callback = null
+        }
+    }
+
+    private class RecordingCallback(expectedCalls: Int) : ThemeCallback {
+        val calls = AtomicInteger()
+        val latch = CountDownLatch(expectedCalls)
+
+        @Volatile
+        var lastDark: Boolean? = null
+
+        override fun themeChanged(isDark: Boolean, isHighContrast: Boolean) {
+            lastDark = isDark
+            calls.incrementAndGet()
+            latch.countDown()
+        }
+    }
+
+    @Test
+    fun testBurstIsCoalesced() {
+        val service = FakeThemeMonitorService()
+        // One call for the initial state and one for the burst.
+        val callback = RecordingCallback(2)
+        val monitor = ThemeMonitorImpl(service, callback, quietWindowMillis = 100)
+        monitor.running = true
+        val initialReads = service.reads.get()
+
+        service.dark = true
+        repeat(BURST_SIZE) { service.callback!!() }
+
+        assertTrue(callback.latch.await(5, TimeUnit.SECONDS))
+        monitor.running = false
+
+        assertEquals(2, callback.calls.get())
+        assertEquals(1, service.reads.get() - initialReads)
+        monitor.notificationStatistics.let {
+            assertEquals(BURST_SIZE.toLong(), it.received)
+            assertEquals(BURST_SIZE - 1L, it.coalesced)
+            assertEquals(1L, it.dispatched)
+        }
+    }
+
+    @Test
+    fun testUnchangedStateIsNotReported() {
+        val service = FakeThemeMonitorService()
+        val callback = RecordingCallback(1)
+        val monitor = ThemeMonitorImpl(service, callback, quietWindowMillis = 0)
+        monitor.running = true
+
+        service.callback!!()
+        assertTrue(callback.latch.await(5, TimeUnit.SECONDS))
+        Thread.sleep(200)
+        monitor.running = false
+
+        assertEquals(1, callback.calls.get())
+        assertEquals(1L, monitor.notificationStatistics.dispatched)
+    }
+
+    @Test
+    fun testStaleStateIsDropped() {
+        val callback = RecordingCallback(1)
+        val service = object : ThemeMonitorService by FakeThemeMonitorService() {
+            var handler: ((ThemeEvent) -> Unit)? = null
+
+            override fun createThemeEventHandler(callback: (ThemeEvent) -> Unit): NativePointer? {
+                handler = callback
+                return NativePointer(1L)
+            }
+
+            override fun readSnapshot(): ThemeSnapshot {
+                // A newer state is pushed while the initial state is still being read.
+                handler!!(ThemeEvent(ThemeSnapshot(dark = true)))
+                callback.latch.await(5, TimeUnit.SECONDS)
+                return ThemeSnapshot(dark = false)
+            }
+        }
+        val monitor = ThemeMonitorImpl(service, callback, quietWindowMillis = 0)
+        monitor.running = true
+        monitor.running = false
+
+        assertEquals(1, callback.calls.get())
+        assertEquals(true, callback.lastDark)
+        assertEquals(1L, monitor.staleUpdateCount)
+    }
+
+    @Test
+    fun testNothingIsReportedAfterStopping() {
+        val service = FakeThemeMonitorService()
+        val callback = RecordingCallback(1)
+        val monitor = ThemeMonitorImpl(service, callback, quietWindowMillis = 100)
+        monitor.running = true
+        assertTrue(callback.latch.await(5, TimeUnit.SECONDS))
+
+        service.dark = true
+        service.callback!!()
+        monitor.running = false
+        Thread.sleep(300)
+
+        assertEquals(1, callback.calls.get())
+        assertEquals(false, callback.lastDark)
+    }
+
+    companion object {
+        private const val BURST_SIZE = 50
+    }
+}
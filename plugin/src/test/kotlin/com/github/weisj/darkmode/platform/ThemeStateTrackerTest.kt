@@ -0,0 +1,103 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.platform
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class ThemeStateTrackerTest {
+
+    private val light = ThemeSnapshot(dark = false)
+    private val dark = ThemeSnapshot(dark = true)
+
+    private fun ThemeStateTracker.reportTo(reports: MutableList<ThemeSnapshot>) = report { reports += it }
+
+    @Test
+    fun testChangeIsReportedIfNewerEqualObservationWinsFirst() {
+        val tracker = ThemeStateTracker()
+        val reports = mutableListOf<ThemeSnapshot>()
+        tracker.offer(tracker.observation(light))
+        tracker.reportTo(reports)
+
+        val older = tracker.observation(dark)
+        val newer = tracker.observation(dark)
+        assertTrue(tracker.offer(older))
+        assertTrue(tracker.offer(newer))
+        // The newer observation doesn't change the state, but the change of the older one hasn't been reported.
+        assertTrue(tracker.reportTo(reports))
+        assertFalse(tracker.reportTo(reports))
+
+        assertEquals(listOf(light, dark), reports)
+    }
+
+    @Test
+    fun testStaleObservationIsDropped() {
+        val tracker = ThemeStateTracker()
+        val reports = mutableListOf<ThemeSnapshot>()
+        val older = tracker.observation(light)
+        val newer = tracker.observation(dark)
+
+        assertTrue(tracker.offer(newer))
+        tracker.reportTo(reports)
+        assertFalse(tracker.offer(older))
+        assertFalse(tracker.reportTo(reports))
+
+        assertEquals(listOf(dark), reports)
+        assertEquals(dark, tracker.current)
+        assertEquals(1, tracker.staleUpdateCount)
+    }
+
+    @Test
+    fun testForcedReportSurvivesStaleObservation() {
+        val tracker = ThemeStateTracker()
+        val reports = mutableListOf<ThemeSnapshot>()
+        tracker.offer(tracker.observation(light))
+        tracker.reportTo(reports)
+
+        val forced = tracker.observation(light)
+        assertTrue(tracker.offer(tracker.observation(light)))
+        assertFalse(tracker.reportTo(reports))
+        assertFalse(tracker.offer(forced, force = true))
+        assertTrue(tracker.reportTo(reports))
+
+        assertEquals(listOf(light, light), reports)
+    }
+
+    @Test
+    fun testForcedReportIsSatisfiedByNewerReport() {
+        val tracker = ThemeStateTracker()
+        val reports = mutableListOf<ThemeSnapshot>()
+        val forced = tracker.observation(light)
+
+        assertTrue(tracker.offer(tracker.observation(dark)))
+        assertTrue(tracker.reportTo(reports))
+        assertFalse(tracker.offer(forced, force = true))
+        assertFalse(tracker.reportTo(reports))
+
+        assertEquals(listOf(dark), reports)
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.platform.settings
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class ConditionTest {
+
+    @Test
+    fun testUnbuiltCompoundConditionFollowsInputs() {
+        var first = true
+        var second = true
+        val condition = conditionOf { first } and not(conditionOf { !second })
+
+        assertTrue(condition())
+        first = false
+        assertFalse(condition())
+        first = true
+        assertTrue(condition())
+        second = false
+        assertFalse(condition())
+    }
+
+    @Test
+    fun testBuiltCompoundConditionFollowsInputs() {
+        var first = true
+        val input = conditionOf { first }
+        val condition = input and conditionOf(true)
+        condition.build()
+
+        assertTrue(condition.value)
+        first = false
+        // Built conditions are only updated once their inputs change.
+        assertTrue(condition())
+        input()
+        assertFalse(condition.value)
+        assertFalse(condition())
+    }
+
+    @Test
+    fun testDiamondIsRecomputedOnceWithoutGlitches() {
+        var flag = true
+        val top = conditionOf { flag }
+        var leftCount = 0
+        var rightCount = 0
+        var bottomCount = 0
+        val left = CompoundCondition(top, top) { value, _ -> leftCount++; !value }
+        val right = CompoundCondition(top, conditionOf(true)) { value, _ -> rightCount++; !value }
+        // The sides are always equal, hence the bottom is only false if it sees an intermediate state.
+        val bottom = CompoundCondition(left, right) { l, r -> bottomCount++; l == r }
+        bottom.build()
+        val received = mutableListOf<Boolean>()
+        bottom.registerListener(Condition::value) { _, new -> received += new }
+        received.clear()
+        leftCount = 0
+        rightCount = 0
+        bottomCount = 0
+
+        flag = false
+        top()
+        assertTrue(bottom())
+        assertTrue(bottom())
+
+        assertEquals(1, leftCount)
+        assertEquals(1, rightCount)
+        assertEquals(1, bottomCount)
+        assertEquals(listOf<Boolean>(), received)
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.platform.settings
+
+import com.intellij.openapi.util.Disposer
+import java.lang.ref.WeakReference
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Test
+
+class ObservableTest {
+
+    private class LazyHolder(private val initializer: () -> String) : DefaultObservable<LazyHolder>() {
+        var lazyValue: String by lazyObservable { initializer() }
+    }
+
+    private class IntHolder : DefaultObservable<IntHolder>() {
+        var intValue by observable(0)
+    }
+
+    private class MixedHolder : DefaultObservable<MixedHolder>() {
+        var first by observable(false)
+        var second by observable(1)
+        var third by observable("a")
+        var fourth by observable(true)
+        var fifth by observable(5)
+    }
+
+    @Test
+    fun testLazyValueIsNotComputedForListeners() {
+        var computed = 0
+        val holder = LazyHolder { computed++; "initial" }
+        val received = mutableListOf<Pair<String, String>>()
+
+        holder.registerListener(LazyHolder::lazyValue) { old, new -> received += old to new }
+        assertEquals(0, computed)
+        assertEquals(listOf<Pair<String, String>>(), received)
+
+        holder.lazyValue = "changed"
+        assertEquals(0, computed)
+        assertEquals(listOf("changed" to "changed"), received)
+
+        holder.lazyValue = "changed again"
+        assertEquals(listOf("changed" to "changed", "changed" to "changed again"), received)
+        assertEquals(0, computed)
+    }
+
+    @Test
+    fun testTransactionNotifiesListenersOnce() {
+        val holder = IntHolder()
+        val received = mutableListOf<Pair<Int, Int>>()
+        holder.registerListener(IntHolder::intValue) { old, new -> received += old to new }
+        received.clear()
+
+        transaction {
+            holder.intValue = 1
+            holder.intValue = 2
+            assertEquals(listOf<Pair<Int, Int>>(), received)
+        }
+        assertEquals(listOf(0 to 2), received)
+    }
+
+    @Test
+    fun testFailedTransactionStillNotifiesListeners() {
+        val holder = IntHolder()
+        val received = mutableListOf<Pair<Int, Int>>()
+        holder.registerListener(IntHolder::intValue) { old, new -> received += old to new }
+        received.clear()
+
+        assertThrows(IllegalStateException::class.java) {
+            transaction {
+                holder.intValue = 1
+                throw IllegalStateException()
+            }
+        }
+        assertEquals(listOf(0 to 1), received)
+    }
+
+    @Test
+    fun testValuesAreStoredPerProperty() {
+        val holder = MixedHolder()
+        val received = mutableListOf<Pair<String, Any>>()
+        holder.registerListener(MixedHolder::first) { _, new -> received += "first" to new }
+        holder.registerListener(MixedHolder::fifth) { _, new -> received += "fifth" to new }
+        holder.registerListener(MixedHolder::third) { _, new -> received += "third" to new }
+        received.clear()
+
+        holder.first = true
+        holder.second = 2
+        holder.third = "b"
+        holder.fourth = false
+        holder.fifth = 6
+        // Unchanged values don't notify.
+        holder.first = true
+        holder.fifth = 6
+
+        assertEquals(true, holder.first)
+        assertEquals(2, holder.second)
+        assertEquals("b", holder.third)
+        assertEquals(false, holder.fourth)
+        assertEquals(6, holder.fifth)
+        assertEquals(listOf("first" to true, "third" to "b", "fifth" to 6), received)
+    }
+
+    @Test
+    fun testListenerIsInvokedWithCurrentValueOnRegistration() {
+        val holder = MixedHolder()
+        val received = mutableListOf<Pair<Int, Int>>()
+        holder.registerListener(MixedHolder::second) { old, new -> received += old to new }
+
+        assertEquals(listOf(1 to 1), received)
+    }
+
+    @Test
+    fun testDisposingRegistrationRemovesListener() {
+        val holder = IntHolder()
+        val received = mutableListOf<Int>()
+        val registration = holder.registerListener(IntHolder::intValue) { _, new -> received += new }
+        holder.intValue = 1
+        Disposer.dispose(registration)
+        holder.intValue = 2
+
+        assertEquals(listOf(0, 1), received)
+    }
+
+    @Test
+    fun testDisposingParentRemovesListener() {
+        val holder = IntHolder()
+        val parent = Disposer.newDisposable()
+        val received = mutableListOf<Int>()
+        holder.registerListener(IntHolder::intValue, parent) { _, new -> received += new }
+        holder.intValue = 1
+        Disposer.dispose(parent)
+        holder.intValue = 2
+
+        assertEquals(listOf(0, 1), received)
+    }
+
+    @Test
+    fun testWeakListenerIsRemovedOnceRegistrationIsCollected() {
+        val holder = IntHolder()
+        val received = mutableListOf<Int>()
+        var registration: ListenerRegistration? =
+            holder.registerListener(IntHolder::intValue, weak = true) { _, new -> received += new }
+        holder.intValue = 1
+        assertEquals(listOf(0, 1), received)
+
+        val reference = WeakReference(registration)
+        @Suppress("UNUSED_VALUE")
+        registration = null
+        repeat(GC_ATTEMPTS) {
+            if (reference.get() == null) return@repeat
+            System.gc()
+            Thread.sleep(10)
+        }
+        assertNull(reference.get())
+        holder.intValue = 2
+
+        assertEquals(listOf(0, 1), received)
+    }
+
+    @Test
+    fun testBackingWriteListenerDoesNotComputeLazyDefault() {
+        var computed = 0
+        val values = LazyDefaultValues { computed++; "default" }
+        val settings = object : DefaultSettingsContainer(identifier = "write_settings") {
+            init {
+                persistentStringProperty(value = values::name)
+            }
+        }.apply { init() }
+        val property = settings.getWithName("name").value
+        var writes = 0
+        val registration = property.registerBackingWriteListener { writes++ }
+
+        property.value = "first"
+        values.name = "direct"
+        settings.transaction { property.value = "second" }
+        assertEquals(2, writes)
+        assertEquals(0, computed)
+
+        Disposer.dispose(registration)
+        property.value = "third"
+        assertEquals(2, writes)
+    }
+
+    private class LazyDefaultValues(default: () -> String) {
+        var name by lazyDefault(default)
+    }
+
+    companion object {
+        private const val GC_ATTEMPTS = 50
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.platform.settings
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class SettingsChangeSetTest {
+
+    private class Values {
+        var enabled = true
+        var name = "name"
+    }
+
+    private class TestSettings(identifier: String) : DefaultSettingsContainer(identifier = identifier) {
+        val values = Values()
+
+        init {
+            persistentBooleanProperty(value = values::enabled)
+            group("Names") {
+                persistentStringProperty(value = values::name)
+            }
+        }
+    }
+
+    @Test
+    fun testUnchangedValuesProduceEmptyChangeSet() {
+        val settings = TestSettings("test_settings").apply { init() }
+        val before = settings.registry.persistentValues()
+
+        val changes = SettingsChangeSet.between(before, settings.registry.persistentValues())
+        assertTrue(changes.isEmpty())
+        assertSame(SettingsChangeSet.EMPTY, changes)
+    }
+
+    @Test
+    fun testOnlyChangedValuesAreReported() {
+        val settings = TestSettings("test_settings").apply { init() }
+        val enabled = settings.getWithName("enabled").value
+        val name = settings.getWithName("name").value
+        val before = settings.registry.persistentValues()
+
+        settings.values.name = "other"
+        val changes = SettingsChangeSet.between(before, settings.registry.persistentValues())
+
+        assertEquals(setOf(name.propertyIdentifier), changes.identifiers)
+        assertEquals(SettingsChangeSet.Change("name", "other"), changes[name.propertyIdentifier])
+        assertTrue(changes.affects(name))
+        assertFalse(changes.affects(enabled))
+    }
+
+    @Test
+    fun testChangesAreAttributedToTheirContainer() {
+        val settings = TestSettings("test_settings").apply { init() }
+        val other = TestSettings("other_settings").apply { init() }
+        val before = settings.registry.persistentValues()
+
+        settings.values.enabled = false
+        val changes = SettingsChangeSet.between(before, settings.registry.persistentValues())
+
+        assertTrue(changes.affects(settings))
+        assertFalse(changes.affects(other))
+    }
+
+    @Test
+    fun testRemovedValuesAreReported() {
+        val settings = TestSettings("test_settings").apply { init() }
+        val before = settings.registry.persistentValues()
+        val identifier = before.keys.first()
+
+        val changes = SettingsChangeSet.between(before, before - identifier)
+        assertEquals(SettingsChangeSet.Change(before[identifier], null), changes[identifier])
+        assertEquals(1, changes.identifiers.size)
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2022 Jannis Weis
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+package com.github.weisj.darkmode.platform.settings
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Test
+
+class SettingsRegistryTest {
+
+    private class Values {
+        var enabled = true
+        var name = "name"
+    }
+
+    private class TestSettings : DefaultSettingsContainer(identifier = "test_settings") {
+        val outer = Values()
+        val first = Values()
+        val second = Values()
+        lateinit var firstGroup: SettingsGroup
+        lateinit var secondGroup: SettingsGroup
+
+        init {
+            group("First") {
+                firstGroup = this
+                persistentBooleanProperty(value = first::enabled)
+            }
+            group("Second") {
+                secondGroup = this
+                persistentBooleanProperty(value = second::enabled)
+            }
+        }
+
+        fun addLate() {
+            persistentStringProperty(value = outer::name)
+        }
+    }
+
+    @Test
+    fun testNameLookupPrefersEnclosingGroup() {
+        val settings = TestSettings().apply { init() }
+
+        val fromFirst = settings.firstGroup.getWithName("enabled").value
+        val fromSecond = settings.secondGroup.getWithName("enabled").value
+        assertEquals(settings.firstGroup.getIdentifierPath(), fromFirst.group.getIdentifierPath())
+        assertEquals(settings.secondGroup.getIdentifierPath(), fromSecond.group.getIdentifierPath())
+        assertSame(fromFirst, settings.getWithName("enabled").value)
+        assertNull(settings.registry.findWithName("missing", settings))
+    }
+
+    @Test
+    fun testRegistryIsNotFrozenBeforeInit() {
+        val settings = TestSettings()
+        assertEquals(2, settings.registry.persistentProperties.size)
+
+        settings.addLate()
+        settings.init()
+        assertEquals(3, settings.registry.persistentProperties.size)
+        assertEquals(3, settings.allProperties().size)
+        assertEquals("name", settings.getWithName("name").value.name)
+    }
+
+    @Test
+    fun testRegistryIsBuiltOnceByInit() {
+        val settings = TestSettings().apply { init() }
+        assertSame(settings.registry, settings.registry)
+    }
+}
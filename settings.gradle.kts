@@ -20,6 +20,7 @@ pluginManagement {
         idv("org.jetbrains.kotlin.jvm", "kotlin")
         idv("org.gradle.kotlin.kotlin-gradle-plugin", "kotlin")
         idv("com.google.devtools.ksp")
+        idv("me.champeau.jmh")
     }
 }
 
@@ -31,6 +32,7 @@ include(
     "linux",
     "linux/gtk",
     "linux/xdg",
+    "benchmarks",
 )
 
 rootProject.name = "auto-dark-mode"